@@ -0,0 +1,157 @@
+package com.foodieexpress.database;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Count, sum and average over one collection, run with DatabaseManager.aggregate():
+ * <pre>
+ * Aggregation.on("orders").groupBy("status").sum("totalAmount")
+ * </pre>
+ * Documents are read once, in place and without being copied or converted to model objects.
+ * Large collections are split across threads, each folding its share into its own groups.
+ */
+public final class Aggregation {
+    // Collections with at least this many documents are aggregated in parallel
+    private static final int PARALLEL_THRESHOLD = Integer.getInteger("foodieexpress.db.parallelAggregateThreshold", 10_000);
+
+    private final String collection;
+    private Condition condition;
+    private String groupField;
+    private List<String> sumFields = Collections.emptyList();
+    private final Map<String, Integer> positions = new HashMap<>();
+
+    private Aggregation(String collection) {
+        this.collection = collection;
+    }
+
+    public static Aggregation on(String collection) {
+        return new Aggregation(collection);
+    }
+
+    public Aggregation where(Condition condition) {
+        this.condition = condition;
+        return this;
+    }
+
+    // One group per distinct value of the field; without it every document falls into a single group keyed null
+    public Aggregation groupBy(String field) {
+        this.groupField = field;
+        return this;
+    }
+
+    // Numeric fields to total and average; documents are always counted
+    public Aggregation sum(String... fields) {
+        this.sumFields = Arrays.asList(fields);
+        positions.clear();
+        for (int i = 0; i < fields.length; i++) {
+            positions.putIfAbsent(fields[i], i);
+        }
+        return this;
+    }
+
+    Map<Object, Group> run(Stream<Map<String, Object>> documents, long size) {
+        if (size >= PARALLEL_THRESHOLD) {
+            documents = documents.parallel();
+        }
+        return documents.collect(HashMap::new, this::accumulate, Aggregation::merge);
+    }
+
+    String collection() {
+        return collection;
+    }
+
+    private void accumulate(Map<Object, Group> groups, Map<String, Object> document) {
+        if (matches(document)) {
+            groups.computeIfAbsent(keyOf(document), k -> newGroup()).add(sumFields, document, 1);
+        }
+    }
+
+    boolean matches(Map<String, Object> document) {
+        return condition == null || condition.matches(document);
+    }
+
+    Object keyOf(Map<String, Object> document) {
+        return groupField != null ? document.get(groupField) : null;
+    }
+
+    Group newGroup() {
+        return new Group(positions, sumFields.size());
+    }
+
+    List<String> sumFields() {
+        return sumFields;
+    }
+
+    private static void merge(Map<Object, Group> into, Map<Object, Group> from) {
+        from.forEach((key, group) -> into.merge(key, group, Group::merge));
+    }
+
+    /**
+     * Totals for one group. Averages are taken over the documents that hold a number in the field.
+     * Sums are kept as exact decimals, so backing a document out leaves no rounding error behind.
+     */
+    public static final class Group {
+        private final Map<String, Integer> positions;
+        private long count;
+        private final BigDecimal[] sums;
+        private final long[] valueCounts;
+
+        private Group(Map<String, Integer> positions, int fields) {
+            this.positions = positions;
+            this.sums = new BigDecimal[fields];
+            this.valueCounts = new long[fields];
+            Arrays.fill(sums, BigDecimal.ZERO);
+        }
+
+        // Count the document in (sign 1) or back out of (sign -1) the group
+        void add(List<String> fields, Map<String, Object> document, int sign) {
+            count += sign;
+            for (int i = 0; i < fields.size(); i++) {
+                BigDecimal value = decimal(document.get(fields.get(i)));
+                if (value != null) {
+                    sums[i] = sign > 0 ? sums[i].add(value) : sums[i].subtract(value);
+                    valueCounts[i] += sign;
+                }
+            }
+        }
+
+        // The number as written, e.g. 0.1 rather than the nearest double; null if not a finite number
+        private static BigDecimal decimal(Object value) {
+            if (value instanceof BigDecimal) return (BigDecimal) value;
+            if (value instanceof Double || value instanceof Float) {
+                double number = ((Number) value).doubleValue();
+                return Double.isFinite(number) ? BigDecimal.valueOf(number) : null;
+            }
+            return value instanceof Number ? BigDecimal.valueOf(((Number) value).longValue()) : null;
+        }
+
+        Group copy() {
+            return new Group(positions, sums.length).merge(this);
+        }
+
+        Group merge(Group other) {
+            count += other.count;
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] = sums[i].add(other.sums[i]);
+                valueCounts[i] += other.valueCounts[i];
+            }
+            return this;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public double sum(String field) {
+            Integer i = positions.get(field);
+            return i != null ? sums[i].doubleValue() : 0.0;
+        }
+
+        public double avg(String field) {
+            Integer i = positions.get(field);
+            return i != null && valueCounts[i] > 0 ? sums[i].doubleValue() / valueCounts[i] : 0.0;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.foodieexpress.database;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Immutable, memory-mapped file of archived documents.
+ *
+ * Layout: magic "FXAR", format version, offset of the tail, the documents in binary encoding,
+ * then the tail: field-name dictionary and an id → offset table. Only the table is held on
+ * heap; documents are decoded from the mapping when they are read.
+ */
+final class ArchiveSegment {
+    private static final byte[] MAGIC = {'F', 'X', 'A', 'R'};
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + Long.BYTES;
+
+    private final int number;
+    private final File file;
+    private final ByteBuffer buffer;
+    private final List<String> fieldNames;
+    private final Map<String, Integer> offsets;
+
+    private ArchiveSegment(int number, File file, ByteBuffer buffer, List<String> fieldNames, Map<String, Integer> offsets) {
+        this.number = number;
+        this.file = file;
+        this.buffer = buffer;
+        this.fieldNames = fieldNames;
+        this.offsets = offsets;
+    }
+
+    static byte[] encode(Map<String, Map<String, Object>> documents) throws IOException {
+        BinaryCodec.Encoder records = new BinaryCodec.Encoder();
+        Map<String, Integer> offsets = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, Object>> entry : documents.entrySet()) {
+            offsets.put(entry.getKey(), HEADER_LENGTH + records.size());
+            records.writeValue(entry.getValue());
+        }
+
+        BinaryCodec.Encoder tail = new BinaryCodec.Encoder();
+        tail.writeVarint(records.fieldNames().size());
+        for (String name : records.fieldNames()) {
+            tail.writeString(name);
+        }
+        tail.writeVarint(offsets.size());
+        for (Map.Entry<String, Integer> entry : offsets.entrySet()) {
+            tail.writeString(entry.getKey());
+            tail.writeVarint(entry.getValue());
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_LENGTH + records.size() + tail.size());
+        out.write(MAGIC);
+        out.write(VERSION);
+        long tailOffset = HEADER_LENGTH + records.size();
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (tailOffset >>> shift));
+        }
+        records.writeTo(out);
+        tail.writeTo(out);
+        return out.toByteArray();
+    }
+
+    static ArchiveSegment open(File file, int number) throws IOException {
+        ByteBuffer buffer = SnapshotFiles.map(file);
+        try {
+            ByteBuffer header = buffer.duplicate();
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not an archive segment: " + file.getName());
+            }
+            int version = header.get();
+            if (version != VERSION) {
+                throw new IOException("Unsupported archive version " + version + " in " + file.getName());
+            }
+            long tailOffset = header.getLong();
+            if (tailOffset < HEADER_LENGTH || tailOffset > buffer.limit()) {
+                throw new IOException("Damaged archive segment " + file.getName());
+            }
+
+            BinaryCodec.Decoder decoder = new BinaryCodec.Decoder(streamAt(buffer, (int) tailOffset));
+            decoder.readDictionary();
+            long count = decoder.readVarint();
+            Map<String, Integer> offsets = new HashMap<>((int) Math.min(count * 2, Integer.MAX_VALUE / 2));
+            for (long i = 0; i < count; i++) {
+                offsets.put(decoder.readString(), (int) decoder.readVarint());
+            }
+            return new ArchiveSegment(number, file, buffer, decoder.fieldNames(), offsets);
+
+        } catch (RuntimeException e) {
+            throw new IOException("Damaged archive segment " + file.getName());
+        }
+    }
+
+    int getNumber() {
+        return number;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    Set<String> ids() {
+        return offsets.keySet();
+    }
+
+    boolean contains(String id) {
+        return offsets.containsKey(id);
+    }
+
+    // Decode one document straight from the mapped file
+    @SuppressWarnings("unchecked")
+    Map<String, Object> read(String id) throws IOException {
+        Integer offset = offsets.get(id);
+        if (offset == null) return null;
+        try {
+            Object value = new BinaryCodec.Decoder(streamAt(buffer, offset), fieldNames).readValue();
+            return value instanceof Map ? (Map<String, Object>) value : null;
+        } catch (RuntimeException e) {
+            throw new IOException("Damaged archive segment " + file.getName());
+        }
+    }
+
+    // Each reader gets its own view of the mapping, so reads need no locking
+    private static InputStream streamAt(ByteBuffer buffer, int offset) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        return new InputStream() {
+            @Override
+            public int read() {
+                return view.hasRemaining() ? view.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!view.hasRemaining()) return -1;
+                int n = Math.min(len, view.remaining());
+                view.get(b, off, n);
+                return n;
+            }
+        };
+    }
+}
@@ -0,0 +1,193 @@
+package com.foodieexpress.database;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+/**
+ * Archive of documents that no longer change, such as delivered and cancelled orders.
+ * Documents live in immutable memory-mapped segment files (<collection>.archive.<n>).
+ * Deleting or reviving an archived document records a tombstone instead of rewriting its
+ * segment; a tombstone hides every copy of the id in segments up to the number it holds.
+ */
+final class ArchiveStore {
+    static final String SEGMENT_INFIX = ".archive.";
+    private static final String TOMBSTONES_SUFFIX = ".tombstones";
+
+    private final File dir;
+    private final String collection;
+    private final List<ArchiveSegment> segments = new CopyOnWriteArrayList<>();
+    // Newest live copy of each archived id
+    private final Map<String, ArchiveSegment> locations = new ConcurrentHashMap<>();
+    private final Map<String, Integer> tombstones = new ConcurrentHashMap<>();
+    private int nextNumber = 1;
+    private volatile long version = 0;
+    private volatile long savedVersion = 0;
+
+    ArchiveStore(File dir, String collection) {
+        this.dir = dir;
+        this.collection = collection;
+    }
+
+    // Map the existing segments of a collection and apply its tombstones
+    static ArchiveStore open(File dir, String collection) throws IOException {
+        ArchiveStore store = new ArchiveStore(dir, collection);
+        store.loadTombstones();
+
+        String prefix = collection + SEGMENT_INFIX;
+        File[] files = dir.listFiles((d, name) -> name.startsWith(prefix) && name.substring(prefix.length()).matches("\\d+"));
+        if (files == null) return store;
+
+        Arrays.sort(files, Comparator.comparingInt(file -> segmentNumber(file, prefix)));
+        for (File file : files) {
+            ArchiveSegment segment = ArchiveSegment.open(file, segmentNumber(file, prefix));
+            store.segments.add(segment);
+            store.nextNumber = segment.getNumber() + 1;
+            for (String id : segment.ids()) {
+                Integer hiddenUpTo = store.tombstones.get(id);
+                if (hiddenUpTo == null || hiddenUpTo < segment.getNumber()) {
+                    store.locations.put(id, segment);
+                }
+            }
+        }
+        if (!store.locations.isEmpty()) {
+            System.out.println("🗄️ Mapped archive: " + collection + " (" + store.locations.size() + " documents in "
+                    + files.length + " segments)");
+        }
+        return store;
+    }
+
+    boolean contains(String id) {
+        return locations.containsKey(id);
+    }
+
+    int size() {
+        return locations.size();
+    }
+
+    Set<String> ids() {
+        return locations.keySet();
+    }
+
+    Map<String, Object> get(String id) {
+        ArchiveSegment segment = locations.get(id);
+        if (segment == null) return null;
+        try {
+            return segment.read(id);
+        } catch (IOException e) {
+            System.err.println("❌ Failed to read archived document " + id + " from " + segment.getFile().getName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    void forEach(BiConsumer<String, Map<String, Object>> action) {
+        for (String id : locations.keySet()) {
+            Map<String, Object> document = get(id);
+            if (document != null) {
+                action.accept(id, document);
+            }
+        }
+    }
+
+    List<Map<String, Object>> readAll() {
+        List<Map<String, Object>> documents = new ArrayList<>(locations.size());
+        forEach((id, document) -> documents.add(document));
+        return documents;
+    }
+
+    // Hide every archived copy of the id; the caller holds the document's lock
+    synchronized void tombstone(String id) {
+        locations.remove(id);
+        if (segments.isEmpty()) return;
+        tombstones.put(id, segments.get(segments.size() - 1).getNumber());
+        version++;
+    }
+
+    // Write documents to a new segment file; they stay hidden until the segment is published
+    synchronized ArchiveSegment writeSegment(Map<String, Map<String, Object>> documents) throws IOException {
+        int number = nextNumber++;
+        File file = new File(dir, collection + SEGMENT_INFIX + String.format("%06d", number));
+        SnapshotFiles.write(file, ArchiveSegment.encode(documents));
+        return ArchiveSegment.open(file, number);
+    }
+
+    /**
+     * Make a written segment readable. Only the given ids are served from it; the rest of its
+     * documents changed while it was written and are tombstoned. The caller holds the collection lock.
+     */
+    synchronized void publish(ArchiveSegment segment, Collection<String> live) {
+        segments.add(segment);
+        for (String id : live) {
+            locations.put(id, segment);
+        }
+        for (String id : segment.ids()) {
+            if (locations.get(id) != segment) {
+                tombstones.put(id, segment.getNumber());
+                version++;
+            }
+        }
+    }
+
+    long tombstoneVersion() {
+        return version;
+    }
+
+    // Copy of the tombstones if they changed since the last save, else null; the caller holds the collection lock
+    Map<String, Integer> pendingTombstones() {
+        if (version == savedVersion) return null;
+        Map<String, Integer> pending = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : tombstones.entrySet()) {
+            // Drop tombstones whose id no longer appears in any segment they cover
+            for (ArchiveSegment segment : segments) {
+                if (segment.getNumber() <= entry.getValue() && segment.contains(entry.getKey())) {
+                    pending.put(entry.getKey(), entry.getValue());
+                    break;
+                }
+            }
+        }
+        return pending;
+    }
+
+    void saveTombstones(Map<String, Integer> pending, long asOfVersion) throws IOException {
+        StringBuilder json = new StringBuilder(pending.size() * 16);
+        JsonWriter.writeValue(json, pending);
+        SnapshotFiles.write(tombstonesFile(), json.toString().getBytes(StandardCharsets.UTF_8));
+        synchronized (this) {
+            savedVersion = Math.max(savedVersion, asOfVersion);
+        }
+    }
+
+    private void loadTombstones() throws IOException {
+        File file = tombstonesFile();
+        for (File candidate : new File[] {file, SnapshotFiles.backupOf(file)}) {
+            if (!candidate.exists()) continue;
+            try (Reader reader = new InputStreamReader(SnapshotFiles.open(candidate), StandardCharsets.UTF_8)) {
+                JsonReader json = new JsonReader(reader);
+                for (Map.Entry<String, Object> entry : json.readObject().entrySet()) {
+                    if (entry.getValue() instanceof Number) {
+                        tombstones.put(entry.getKey(), ((Number) entry.getValue()).intValue());
+                    }
+                }
+                json.expectEnd();
+                return;
+            } catch (IOException e) {
+                tombstones.clear();
+                System.err.println("⚠️ Tombstones " + candidate.getName() + " are damaged (" + e.getMessage() + "), trying backup");
+            }
+        }
+        if (file.exists()) {
+            throw new IOException("No readable tombstones for archive " + collection);
+        }
+    }
+
+    private File tombstonesFile() {
+        return new File(dir, collection + TOMBSTONES_SUFFIX);
+    }
+
+    private static int segmentNumber(File file, String prefix) {
+        return Integer.parseInt(file.getName().substring(prefix.length()));
+    }
+}
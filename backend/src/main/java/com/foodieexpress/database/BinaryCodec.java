@@ -0,0 +1,272 @@
+package com.foodieexpress.database;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Compact binary encoding for collection snapshots.
+ *
+ * Layout: magic "FXDB", format version, field-name dictionary, document count, then each
+ * document as (id, value). Field names are written once in the dictionary and referenced by
+ * index; integers are zig-zag varints, doubles are 8 bytes and strings are length-prefixed UTF-8.
+ */
+final class BinaryCodec {
+    private static final byte[] MAGIC = {'F', 'X', 'D', 'B'};
+    private static final int VERSION = 1;
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_TRUE = 1;
+    private static final int TAG_FALSE = 2;
+    private static final int TAG_INT = 3;
+    private static final int TAG_LONG = 4;
+    private static final int TAG_DOUBLE = 5;
+    private static final int TAG_STRING = 6;
+    private static final int TAG_MAP = 7;
+    private static final int TAG_LIST = 8;
+
+    private BinaryCodec() {}
+
+    static byte[] encodeCollection(Map<String, Map<String, Object>> collection) throws IOException {
+        Encoder body = new Encoder();
+        body.writeVarint(collection.size());
+        for (Map.Entry<String, Map<String, Object>> entry : collection.entrySet()) {
+            body.writeString(entry.getKey());
+            body.writeValue(entry.getValue());
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.size() + 1024);
+        Encoder header = new Encoder(out);
+        out.write(MAGIC);
+        out.write(VERSION);
+        header.writeVarint(body.fieldNames.size());
+        for (String name : body.fieldNames.keySet()) {
+            header.writeString(name);
+        }
+        body.writeTo(out);
+        return out.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Map<String, Object>> decodeCollection(InputStream in, Map<String, Map<String, Object>> target) throws IOException {
+        Decoder decoder = new Decoder(in);
+        decoder.readHeader();
+
+        long count = decoder.readVarint();
+        for (long i = 0; i < count; i++) {
+            String id = decoder.readString();
+            Object document = decoder.readValue();
+            if (document instanceof Map) {
+                target.put(id, (Map<String, Object>) document);
+            }
+        }
+        if (in.read() != -1) {
+            throw new IOException("Unexpected trailing bytes in binary collection");
+        }
+        return target;
+    }
+
+    static class Encoder {
+        private final ByteArrayOutputStream buffer;
+        private final Map<String, Integer> fieldNames = new LinkedHashMap<>();
+
+        Encoder() {
+            this(new ByteArrayOutputStream(4096));
+        }
+
+        Encoder(ByteArrayOutputStream buffer) {
+            this.buffer = buffer;
+        }
+
+        int size() {
+            return buffer.size();
+        }
+
+        // Field names referenced so far, in dictionary order
+        Set<String> fieldNames() {
+            return fieldNames.keySet();
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            buffer.writeTo(out);
+        }
+
+        void writeValue(Object value) {
+            if (value == null) {
+                buffer.write(TAG_NULL);
+            } else if (value instanceof Boolean) {
+                buffer.write((Boolean) value ? TAG_TRUE : TAG_FALSE);
+            } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                buffer.write(TAG_INT);
+                writeVarint(zigZag(((Number) value).longValue()));
+            } else if (value instanceof Long) {
+                buffer.write(TAG_LONG);
+                writeVarint(zigZag((Long) value));
+            } else if (value instanceof Number) {
+                buffer.write(TAG_DOUBLE);
+                long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    buffer.write((int) (bits >>> shift));
+                }
+            } else if (value instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) value;
+                buffer.write(TAG_MAP);
+                writeVarint(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeVarint(fieldIndex(String.valueOf(entry.getKey())));
+                    writeValue(entry.getValue());
+                }
+            } else if (value instanceof Collection) {
+                Collection<?> list = (Collection<?>) value;
+                buffer.write(TAG_LIST);
+                writeVarint(list.size());
+                for (Object element : list) {
+                    writeValue(element);
+                }
+            } else {
+                buffer.write(TAG_STRING);
+                writeString(value.toString());
+            }
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            buffer.write(bytes, 0, bytes.length);
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                buffer.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.write((int) value);
+        }
+
+        private int fieldIndex(String name) {
+            Integer index = fieldNames.get(name);
+            if (index == null) {
+                index = fieldNames.size();
+                fieldNames.put(name, index);
+            }
+            return index;
+        }
+
+        private static long zigZag(long value) {
+            return (value << 1) ^ (value >> 63);
+        }
+    }
+
+    static class Decoder {
+        private final InputStream in;
+        private List<String> fieldNames = new ArrayList<>();
+
+        Decoder(InputStream in) {
+            this.in = in;
+        }
+
+        Decoder(InputStream in, List<String> fieldNames) {
+            this.in = in;
+            this.fieldNames = fieldNames;
+        }
+
+        List<String> fieldNames() {
+            return fieldNames;
+        }
+
+        void readHeader() throws IOException {
+            byte[] magic = readBytes(MAGIC.length);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a binary collection file");
+            }
+            int version = readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary format version " + version);
+            }
+            readDictionary();
+        }
+
+        void readDictionary() throws IOException {
+            int size = (int) readVarint();
+            List<String> names = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                names.add(readString().intern());
+            }
+            fieldNames = names;
+        }
+
+        Object readValue() throws IOException {
+            int tag = readByte();
+            switch (tag) {
+                case TAG_NULL: return null;
+                case TAG_TRUE: return Boolean.TRUE;
+                case TAG_FALSE: return Boolean.FALSE;
+                case TAG_INT: return (int) unZigZag(readVarint());
+                case TAG_LONG: return unZigZag(readVarint());
+                case TAG_DOUBLE:
+                    long bits = 0;
+                    for (int i = 0; i < 8; i++) {
+                        bits = (bits << 8) | readByte();
+                    }
+                    return Double.longBitsToDouble(bits);
+                case TAG_STRING: return readString();
+                case TAG_MAP:
+                    int fields = (int) readVarint();
+                    Map<String, Object> map = new HashMap<>(Math.max(16, fields * 2));
+                    for (int i = 0; i < fields; i++) {
+                        int index = (int) readVarint();
+                        if (index >= fieldNames.size()) {
+                            throw new IOException("Unknown field reference " + index);
+                        }
+                        map.put(fieldNames.get(index), readValue());
+                    }
+                    return map;
+                case TAG_LIST:
+                    int length = (int) readVarint();
+                    List<Object> list = new ArrayList<>(length);
+                    for (int i = 0; i < length; i++) {
+                        list.add(readValue());
+                    }
+                    return list;
+                default:
+                    throw new IOException("Unknown value tag " + tag);
+            }
+        }
+
+        String readString() throws IOException {
+            int length = (int) readVarint();
+            return new String(readBytes(length), StandardCharsets.UTF_8);
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        private int readByte() throws IOException {
+            int b = in.read();
+            if (b == -1) throw new EOFException("Unexpected end of binary collection");
+            return b;
+        }
+
+        private byte[] readBytes(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int n = in.read(bytes, read, length - read);
+                if (n == -1) throw new EOFException("Unexpected end of binary collection");
+                read += n;
+            }
+            return bytes;
+        }
+
+        private static long unZigZag(long value) {
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+}
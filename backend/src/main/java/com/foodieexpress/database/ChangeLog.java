@@ -0,0 +1,181 @@
+package com.foodieexpress.database;
+
+import java.util.*;
+
+/**
+ * Numbers every write to a collection and remembers, per value of one field (e.g. customerId),
+ * the last change to each document, created with DatabaseManager.trackChanges(). A client that
+ * holds a version can then fetch just the documents written or deleted since then.
+ * Versions are tokens of the form "epoch:sequence". The epoch is drawn at random for each run,
+ * so a version from an earlier run, or anything else not issued by this log, gets a full answer.
+ */
+public final class ChangeLog {
+    // Deleted documents remembered per key; older deletions force a full answer instead
+    private static final int MAX_DELETED = Integer.getInteger("foodieexpress.db.changeLogDeleted", 1_000);
+
+    private final String field;
+    private final String epoch = UUID.randomUUID().toString().substring(0, 8);
+    private final Map<Object, KeyLog> keys = new HashMap<>();
+    private long sequence = 0;
+
+    ChangeLog(String field) {
+        this.field = field;
+    }
+
+    // Record a document's old version (null if new) being replaced by its new one (null if deleted)
+    synchronized void record(String id, Map<String, Object> previous, Map<String, Object> next) {
+        long version = ++sequence;
+        Object previousKey = previous != null ? previous.get(field) : null;
+        Object nextKey = next != null ? next.get(field) : null;
+
+        // A document that moves to another key is deleted from the old one
+        if (previous != null && previousKey != null && !Objects.equals(previousKey, nextKey)) {
+            keyLog(previousKey).put(id, new Change(version, previous, true));
+        }
+        if (next != null && nextKey != null) {
+            keyLog(nextKey).put(id, new Change(version, null, false));
+        }
+    }
+
+    private KeyLog keyLog(Object key) {
+        return keys.computeIfAbsent(key, k -> new KeyLog());
+    }
+
+    // Latest version of the key's documents
+    public synchronized String version(Object key) {
+        KeyLog log = keys.get(key);
+        return token(log != null ? log.latest : 0);
+    }
+
+    private String token(long sequence) {
+        return epoch + ":" + sequence;
+    }
+
+    // Sequence number of a version this log issued, or -1 for any other string
+    private long sequenceOf(String version) {
+        if (version == null || !version.startsWith(epoch + ":")) return -1;
+        try {
+            return Long.parseLong(version.substring(epoch.length() + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Documents of a key written or deleted after the given version. The result is not
+     * complete when the version predates what the log remembers or was not issued by this
+     * run of it; send everything then.
+     */
+    public synchronized Changes since(Object key, String version) {
+        KeyLog log = keys.get(key);
+        long latest = log != null ? log.latest : 0;
+        long floor = log != null ? log.floor : 0;
+        long since = sequenceOf(version);
+        if (since < floor || since > sequence) {
+            return new Changes(token(latest), false, Collections.emptyList(), Collections.emptyList());
+        }
+
+        List<String> written = new ArrayList<>();
+        List<Map<String, Object>> deleted = new ArrayList<>();
+        if (log != null) {
+            for (Map.Entry<Long, String> entry : log.order.tailMap(since, false).entrySet()) {
+                Change change = log.changes.get(entry.getValue());
+                if (change.deleted) {
+                    deleted.add(change.lastVersion);
+                } else {
+                    written.add(entry.getValue());
+                }
+            }
+        }
+        // Never hand back an older version than the client sent
+        return new Changes(token(Math.max(latest, since)), true, written, deleted);
+    }
+
+    /**
+     * What changed for a key: IDs of documents written since the requested version, and the
+     * last stored version of each document deleted since then.
+     */
+    public static final class Changes {
+        private final String version;
+        private final boolean complete;
+        private final List<String> written;
+        private final List<Map<String, Object>> deleted;
+
+        Changes(String version, boolean complete, List<String> written, List<Map<String, Object>> deleted) {
+            this.version = version;
+            this.complete = complete;
+            this.written = written;
+            this.deleted = deleted;
+        }
+
+        public String version() {
+            return version;
+        }
+
+        public boolean isComplete() {
+            return complete;
+        }
+
+        public boolean isEmpty() {
+            return complete && written.isEmpty() && deleted.isEmpty();
+        }
+
+        public List<String> written() {
+            return written;
+        }
+
+        public List<Map<String, Object>> deleted() {
+            return deleted;
+        }
+    }
+
+    private static final class Change {
+        final long version;
+        final Map<String, Object> lastVersion;
+        final boolean deleted;
+
+        Change(long version, Map<String, Object> lastVersion, boolean deleted) {
+            this.version = version;
+            this.lastVersion = lastVersion;
+            this.deleted = deleted;
+        }
+    }
+
+    // Last change per document of one key, also ordered by version
+    private static final class KeyLog {
+        final Map<String, Change> changes = new HashMap<>();
+        final TreeMap<Long, String> order = new TreeMap<>();
+        final ArrayDeque<Long> deletions = new ArrayDeque<>();
+        long latest;
+        long floor;
+
+        void put(String id, Change change) {
+            Change replaced = changes.put(id, change);
+            if (replaced != null) {
+                order.remove(replaced.version);
+            }
+            order.put(change.version, id);
+            latest = change.version;
+
+            if (change.deleted) {
+                deletions.add(change.version);
+                forgetOldDeletions();
+            }
+        }
+
+        // Versions in the queue may have been superseded by a later write of the same document
+        private void forgetOldDeletions() {
+            while (deletions.size() > MAX_DELETED) {
+                long version = deletions.poll();
+                String id = order.get(version);
+                if (id == null) continue;
+                Change change = changes.get(id);
+                if (change.version == version && change.deleted) {
+                    order.remove(version);
+                    changes.remove(id);
+                    floor = Math.max(floor, version);
+                }
+            }
+        }
+    }
+}
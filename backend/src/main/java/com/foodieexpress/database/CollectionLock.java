@@ -0,0 +1,50 @@
+package com.foodieexpress.database;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write locking for one collection.
+ * Writes to different documents run in parallel: each holds the shared side of the collection
+ * lock plus the stripe its id hashes to. Snapshots, index builds and writes that must check a
+ * unique constraint take the exclusive side. Reads take no lock.
+ */
+final class CollectionLock {
+    private static final int STRIPES = 64;
+
+    private final ReentrantReadWriteLock collectionLock = new ReentrantReadWriteLock();
+    private final Lock[] stripes = new Lock[STRIPES];
+
+    CollectionLock() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    // Lock one document, or the whole collection when exclusive; release it in a finally block
+    Held lock(String id, boolean exclusive) {
+        if (exclusive) {
+            return lockCollection();
+        }
+        Lock shared = collectionLock.readLock();
+        Lock stripe = stripes[Math.floorMod(id.hashCode(), STRIPES)];
+        shared.lock();
+        stripe.lock();
+        return () -> {
+            stripe.unlock();
+            shared.unlock();
+        };
+    }
+
+    Held lockCollection() {
+        Lock exclusive = collectionLock.writeLock();
+        exclusive.lock();
+        return exclusive::unlock;
+    }
+
+    interface Held extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
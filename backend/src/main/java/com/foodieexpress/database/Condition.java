@@ -0,0 +1,216 @@
+package com.foodieexpress.database;
+
+import java.util.*;
+
+/**
+ * Filter for a {@link Query}: equality, range, prefix and substring tests on fields, combined with and/or.
+ * Each test can name the documents it may match from an index on its field, so a query reads
+ * only those instead of scanning the collection; every candidate is still checked in full.
+ */
+public abstract class Condition {
+
+    Condition() {}
+
+    abstract boolean matches(Map<String, Object> document);
+
+    // IDs of every document that may match, looked up in an index; null if the collection has to be scanned
+    abstract Set<String> candidates(String collection);
+
+    public Condition and(Condition other) {
+        return and(this, other);
+    }
+
+    public Condition or(Condition other) {
+        return or(this, other);
+    }
+
+    // Field equals the value, with the same equality as findByField
+    public static Condition eq(String field, Object value) {
+        return new Equals(field, value);
+    }
+
+    // Field lies in [from, to]; a null bound leaves that side open
+    public static Condition range(String field, Object from, Object to) {
+        return new Range(field, from, to);
+    }
+
+    // String field starts with the prefix
+    public static Condition prefix(String field, String prefix) {
+        return new Prefix(field, prefix);
+    }
+
+    // String field contains the text, ignoring case; always checked document by document
+    public static Condition contains(String field, String text) {
+        return new Contains(field, text);
+    }
+
+    public static Condition and(Condition... conditions) {
+        return new And(Arrays.asList(conditions));
+    }
+
+    public static Condition or(Condition... conditions) {
+        return new Or(Arrays.asList(conditions));
+    }
+
+    private static final class Equals extends Condition {
+        private final String field;
+        private final Object value;
+
+        Equals(String field, Object value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        @Override
+        boolean matches(Map<String, Object> document) {
+            return Objects.equals(document.get(field), value);
+        }
+
+        @Override
+        Set<String> candidates(String collection) {
+            HashIndex index = DatabaseManager.hashIndex(collection, field);
+            if (index != null) {
+                return new HashSet<>(index.lookup(value));
+            }
+            SortedIndex sorted = DatabaseManager.sortedIndex(collection, field);
+            if (sorted != null && value != null) {
+                return new HashSet<>(sorted.range(value, value, 0, false));
+            }
+            return null;
+        }
+    }
+
+    private static final class Range extends Condition {
+        private final String field;
+        private final Object from;
+        private final Object to;
+
+        Range(String field, Object from, Object to) {
+            this.field = field;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        boolean matches(Map<String, Object> document) {
+            Object value = document.get(field);
+            if (value == null) return false;
+            if (from != null && SortedIndex.compareValues(value, from) < 0) return false;
+            return to == null || SortedIndex.compareValues(value, to) <= 0;
+        }
+
+        @Override
+        Set<String> candidates(String collection) {
+            SortedIndex index = DatabaseManager.sortedIndex(collection, field);
+            return index != null ? new HashSet<>(index.range(from, to, 0, false)) : null;
+        }
+    }
+
+    private static final class Prefix extends Condition {
+        private final String field;
+        private final String prefix;
+
+        Prefix(String field, String prefix) {
+            this.field = field;
+            this.prefix = prefix;
+        }
+
+        @Override
+        boolean matches(Map<String, Object> document) {
+            Object value = document.get(field);
+            return value instanceof String && ((String) value).startsWith(prefix);
+        }
+
+        @Override
+        Set<String> candidates(String collection) {
+            // Every string starting with the prefix sorts between it and the prefix followed by the highest char
+            SortedIndex index = DatabaseManager.sortedIndex(collection, field);
+            return index != null ? new HashSet<>(index.range(prefix, prefix + Character.MAX_VALUE, 0, false)) : null;
+        }
+    }
+
+    private static final class Contains extends Condition {
+        private final String field;
+        private final String text;
+
+        Contains(String field, String text) {
+            this.field = field;
+            this.text = text.toLowerCase();
+        }
+
+        @Override
+        boolean matches(Map<String, Object> document) {
+            Object value = document.get(field);
+            return value instanceof String && ((String) value).toLowerCase().contains(text);
+        }
+
+        @Override
+        Set<String> candidates(String collection) {
+            return null;
+        }
+    }
+
+    private static final class And extends Condition {
+        private final List<Condition> conditions;
+
+        And(List<Condition> conditions) {
+            this.conditions = conditions;
+        }
+
+        @Override
+        boolean matches(Map<String, Object> document) {
+            for (Condition condition : conditions) {
+                if (!condition.matches(document)) return false;
+            }
+            return true;
+        }
+
+        // Any indexed part narrows the search; the smallest candidate set is intersected with the others
+        @Override
+        Set<String> candidates(String collection) {
+            List<Set<String>> indexed = new ArrayList<>();
+            for (Condition condition : conditions) {
+                Set<String> ids = condition.candidates(collection);
+                if (ids != null) {
+                    indexed.add(ids);
+                }
+            }
+            if (indexed.isEmpty()) return null;
+
+            indexed.sort(Comparator.comparingInt(Set::size));
+            Set<String> result = indexed.get(0);
+            for (int i = 1; i < indexed.size() && !result.isEmpty(); i++) {
+                result.retainAll(indexed.get(i));
+            }
+            return result;
+        }
+    }
+
+    private static final class Or extends Condition {
+        private final List<Condition> conditions;
+
+        Or(List<Condition> conditions) {
+            this.conditions = conditions;
+        }
+
+        @Override
+        boolean matches(Map<String, Object> document) {
+            for (Condition condition : conditions) {
+                if (condition.matches(document)) return true;
+            }
+            return false;
+        }
+
+        // Usable only if every alternative is indexed
+        @Override
+        Set<String> candidates(String collection) {
+            Set<String> result = new HashSet<>();
+            for (Condition condition : conditions) {
+                Set<String> ids = condition.candidates(collection);
+                if (ids == null) return null;
+                result.addAll(ids);
+            }
+            return result;
+        }
+    }
+}
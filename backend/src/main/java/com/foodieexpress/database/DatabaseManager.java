@@ -1,18 +1,90 @@
 package com.foodieexpress.database;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 /**
  * Real-time database manager with file-based persistence
  * Simulates MongoDB operations with immediate persistence
+ * Mutations are appended to a per-collection operation log and replayed on startup
  */
 public class DatabaseManager {
     private static final String DATA_DIR = "data";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String COMPACTING_SUFFIX = ".compacting";
+    private static final String PREVIOUS_SUFFIX = ".prev";
+    private static final String SEQUENCES_FILE = "sequences.meta";
     private static final Map<String, Map<String, Map<String, Object>>> database = new ConcurrentHashMap<>();
+    private static final Map<String, OperationLog> logs = new ConcurrentHashMap<>();
+    private static final Map<String, Map<String, HashIndex>> indexes = new ConcurrentHashMap<>();
+    private static final Map<String, Map<String, SortedIndex>> sortedIndexes = new ConcurrentHashMap<>();
+    // Aggregates updated on every write, like indexes
+    private static final Map<String, List<MaterializedAggregate>> aggregates = new ConcurrentHashMap<>();
+    // Per-key change sequences for clients syncing only what changed
+    private static final Map<String, List<ChangeLog>> changeLogs = new ConcurrentHashMap<>();
+    // Writers lock only the collection (or document) they change
+    private static final Map<String, CollectionLock> locks = new ConcurrentHashMap<>();
+    // Versions replaced while read views are open
+    private static final VersionHistory history = new VersionHistory();
+    
+    // Transactions are numbered in commit order; a snapshot records the last one it includes
+    private static final AtomicLong transactionCounter = new AtomicLong();
+    private static final Map<String, Long> lastTransaction = new ConcurrentHashMap<>();
+    
+    // Documents that stopped changing are moved out of memory into memory-mapped archive segments
+    private static final Map<String, ArchiveStore> archives = new ConcurrentHashMap<>();
+    private static final Map<String, Predicate<Map<String, Object>>> archivePolicies = new ConcurrentHashMap<>();
+    
+    // Group commit: batch log writes into one fsync every N ms (0 = write each record immediately)
+    private static long groupCommitMs = Long.getLong("foodieexpress.db.groupCommitMs", 0L);
+    // In group-commit mode, block writers until their batch is durable
+    private static boolean waitForCommit = Boolean.parseBoolean(System.getProperty("foodieexpress.db.waitForCommit", "true"));
+    private static GroupCommitter groupCommitter;
+    
+    // Background snapshots: compact a collection's log after N ms or N logged operations
+    private static final long SNAPSHOT_INTERVAL_MS = Long.getLong("foodieexpress.db.snapshotIntervalMs", 60_000L);
+    private static final long SNAPSHOT_AFTER_OPS = Long.getLong("foodieexpress.db.snapshotAfterOps", 1_000L);
+    private static Snapshotter snapshotter;
+    
+    // Snapshot format per collection (JSON unless listed in foodieexpress.db.binaryCollections)
+    private static final Map<String, StorageFormat> storageFormats = new ConcurrentHashMap<>();
+    static {
+        for (String name : System.getProperty("foodieexpress.db.binaryCollections", "").split(",")) {
+            if (!name.trim().isEmpty()) {
+                storageFormats.put(name.trim(), StorageFormat.BINARY);
+            }
+        }
+    }
+    
     private static boolean initialized = false;
-    private static int nextId = 1;
+    
+    // Per-collection ID sequences, reserving this many IDs per persisted block
+    private static final long ID_BLOCK_SIZE = Long.getLong("foodieexpress.db.idBlockSize", 1_000L);
+    private static IdSequences idSequences;
+    
+    // Collections are read and parsed in parallel, on a fork-join pool of this many threads
+    private static final int LOAD_PARALLELISM = Integer.getInteger("foodieexpress.db.loadThreads",
+            Runtime.getRuntime().availableProcessors());
+    private static ForkJoinPool loader;
+    
+    // Collections on disk are registered at startup and read on first access; these are read before startup ends
+    private static final Set<String> WARM_COLLECTIONS = new HashSet<>(Arrays.asList(
+            System.getProperty("foodieexpress.db.warmCollections", "menu_items").split("\\s*,\\s*")));
+    // Load the other collections in the background right after startup instead of waiting for their first use
+    private static final boolean BACKGROUND_LOAD = Boolean.parseBoolean(System.getProperty("foodieexpress.db.backgroundLoad", "true"));
+    private static final Map<String, PendingLoad> pendingLoads = new ConcurrentHashMap<>();
     
     public static synchronized void initialize() {
         if (initialized) return;
@@ -31,7 +103,17 @@ public class DatabaseManager {
             database.put("orders", new ConcurrentHashMap<>());
             database.put("customers", new ConcurrentHashMap<>());
             
+            // Start the background flusher before any log is written
+            if (groupCommitMs > 0) {
+                groupCommitter = new GroupCommitter(logs.values(), groupCommitMs);
+                groupCommitter.start();
+                Runtime.getRuntime().addShutdownHook(new Thread(groupCommitter::stop, "db-group-commit-shutdown"));
+                System.out.println("⏱️ Group commit enabled: flushing every " + groupCommitMs + "ms"
+                        + (waitForCommit ? " (writers wait for durability)" : ""));
+            }
+            
             // Load existing data
+            idSequences = IdSequences.load(new File(DATA_DIR, SEQUENCES_FILE), ID_BLOCK_SIZE);
             loadAllCollections();
             
             // Initialize with sample data if empty
@@ -39,8 +121,9 @@ public class DatabaseManager {
                 initializeSampleMenuData();
             }
             
-            // Set next ID based on existing data
-            updateNextId();
+            // Keep logs short by folding them into collection snapshots in the background
+            snapshotter = new Snapshotter(logs, DatabaseManager::compactCollection, SNAPSHOT_INTERVAL_MS, SNAPSHOT_AFTER_OPS);
+            snapshotter.start();
             
             initialized = true;
             System.out.println("✅ Real-time database initialized successfully");
@@ -52,31 +135,66 @@ public class DatabaseManager {
         }
     }
     
+    // Enable group commit; must be called before initialize()
+    public static synchronized void configureGroupCommit(long intervalMs, boolean waitForDurability) {
+        if (initialized) {
+            System.err.println("⚠️ Group commit must be configured before the database is initialized");
+            return;
+        }
+        groupCommitMs = intervalMs;
+        waitForCommit = waitForDurability;
+    }
+    
+    /**
+     * Move documents matching the condition into the collection's archive when it is next snapshotted.
+     * Archived documents stay readable and indexed, but are decoded from disk on each read.
+     */
+    public static void archiveWhen(String collection, Predicate<Map<String, Object>> condition) {
+        archivePolicies.put(collection, condition);
+    }
+    
+    /**
+     * Run an action once the collection is loaded: right away if it already is, otherwise in the
+     * background just after it loads. Use it for startup work that would otherwise force the load.
+     */
+    public static void whenLoaded(String collection, Runnable action) {
+        PendingLoad pending = pendingLoads.get(collection);
+        if (pending == null || !pending.defer(action)) {
+            action.run();
+        }
+    }
+    
     // CRUD Operations
-    public static synchronized String insert(String collection, Map<String, Object> document) {
+    public static String insert(String collection, Map<String, Object> document) {
         try {
-            Map<String, Map<String, Object>> coll = getCollection(collection);
+            String id = assignId(collection, document);
+            long commitSeq;
             
-            // Generate ID if not present
-            String id;
-            if (document.containsKey("id")) {
-                id = document.get("id").toString();
-            } else {
-                id = String.valueOf(nextId++);
-                document.put("id", Integer.parseInt(id));
+            // Unique constraints are checked against the whole collection, so they need it to themselves
+            CollectionLock.Held held = getLock(collection).lock(id, hasUniqueIndex(collection, document.keySet()));
+            try {
+                // Add timestamps
+                long now = System.currentTimeMillis();
+                document.put("createdAt", now);
+                document.put("updatedAt", now);
+                
+                // Reject duplicates before anything is stored
+                Map<String, Object> stored = Documents.freeze(document);
+                Map<String, Object> replaced = lookup(collection, id);
+                for (HashIndex index : getIndexes(collection)) {
+                    index.checkUnique(id, stored.get(index.getField()));
+                }
+                
+                // Log first, so a failed append leaves nothing changed
+                commitSeq = appendToLog(collection, "insert", id, stored);
+                
+                // Store document
+                storeVersion(collection, id, replaced, stored);
+            } finally {
+                held.close();
             }
             
-            // Add timestamps
-            long now = System.currentTimeMillis();
-            document.put("createdAt", now);
-            document.put("updatedAt", now);
-            
-            // Store document
-            coll.put(id, new HashMap<>(document));
-            
-            // Persist immediately
-            saveCollection(collection);
-            
+            awaitCommit(collection, commitSeq);
             System.out.println("💾 [" + collection + "] Inserted document with ID: " + id);
             return id;
             
@@ -86,21 +204,66 @@ public class DatabaseManager {
         }
     }
     
+    // Take the next ID from a collection's sequence, for documents that derive other keys from it
+    public static Long nextId(String collection) {
+        try {
+            awaitLoaded(collection);
+            return idSequences.next(collection);
+        } catch (IOException e) {
+            System.err.println("❌ Failed to reserve ID for " + collection + ": " + e.getMessage());
+            return null;
+        }
+    }
+    
+    // Generate ID if not present; explicit numeric IDs move the sequence past them
+    static String assignId(String collection, Map<String, Object> document) throws IOException {
+        // The sequence is seeded from the collection's data as it loads
+        awaitLoaded(collection);
+        if (document.containsKey("id")) {
+            if (document.get("id") instanceof Number) {
+                idSequences.observe(collection, ((Number) document.get("id")).longValue());
+            }
+            return document.get("id").toString();
+        }
+        long next = idSequences.next(collection);
+        document.put("id", next <= Integer.MAX_VALUE ? (Object) (int) next : (Object) next);
+        return String.valueOf(next);
+    }
+    
+    /**
+     * Open a consistent view of every collection as of now. Reads through it ignore later
+     * writes, and writers are never blocked by it; close it when done, e.g. with try-with-resources.
+     */
+    public static ReadView beginSnapshot() {
+        return new ReadView(history, history.open());
+    }
+    
     public static List<Map<String, Object>> findAll(String collection) {
-        Map<String, Map<String, Object>> coll = getCollection(collection);
-        return new ArrayList<>(coll.values());
+        List<Map<String, Object>> results = new ArrayList<>(getCollection(collection).values());
+        results.addAll(getArchive(collection).readAll());
+        return results;
     }
     
     public static Map<String, Object> findById(String collection, String id) {
-        Map<String, Map<String, Object>> coll = getCollection(collection);
-        return coll.get(id);
+        return lookup(collection, id);
     }
     
     public static List<Map<String, Object>> findByField(String collection, String field, Object value) {
         List<Map<String, Object>> results = new ArrayList<>();
-        Map<String, Map<String, Object>> coll = getCollection(collection);
         
-        for (Map<String, Object> doc : coll.values()) {
+        // Use a secondary index when one exists on the field
+        HashIndex index = indexes.getOrDefault(collection, Collections.emptyMap()).get(field);
+        if (index != null) {
+            for (String id : index.lookup(value)) {
+                Map<String, Object> doc = lookup(collection, id);
+                if (doc != null && Objects.equals(doc.get(field), value)) {
+                    results.add(doc);
+                }
+            }
+            return results;
+        }
+        
+        for (Map<String, Object> doc : findAll(collection)) {
             if (Objects.equals(doc.get(field), value)) {
                 results.add(doc);
             }
@@ -108,23 +271,93 @@ public class DatabaseManager {
         return results;
     }
     
-    public static synchronized boolean update(String collection, String id, Map<String, Object> updates) {
+    /**
+     * Documents whose field value lies in [from, to], ordered by that field.
+     * A null bound leaves that side open and limit <= 0 returns every match, so
+     * findRange(c, "createdAt", null, null, 10, true) yields the latest ten documents.
+     * Uses the sorted index on the field when one exists, otherwise scans and sorts.
+     */
+    public static List<Map<String, Object>> findRange(String collection, String field, Object from, Object to,
+                                                      int limit, boolean descending) {
+        List<Map<String, Object>> results = new ArrayList<>();
+        
+        SortedIndex index = sortedIndexes.getOrDefault(collection, Collections.emptyMap()).get(field);
+        if (index != null) {
+            for (String id : index.range(from, to, limit, descending)) {
+                Map<String, Object> doc = lookup(collection, id);
+                if (doc != null) {
+                    results.add(doc);
+                }
+            }
+            return results;
+        }
+        
+        for (Map<String, Object> doc : findAll(collection)) {
+            Object value = doc.get(field);
+            if (value == null) continue;
+            if (from != null && SortedIndex.compareValues(value, from) < 0) continue;
+            if (to != null && SortedIndex.compareValues(value, to) > 0) continue;
+            results.add(doc);
+        }
+        Comparator<Map<String, Object>> order = (a, b) -> SortedIndex.compareValues(a.get(field), b.get(field));
+        results.sort(descending ? order.reversed() : order);
+        return limit > 0 && results.size() > limit ? new ArrayList<>(results.subList(0, limit)) : results;
+    }
+    
+    /**
+     * Run a query: documents matching its condition, sorted, paged and projected as it asks.
+     * Like the other finders it reads current data without taking locks.
+     */
+    public static List<Map<String, Object>> find(Query query) {
+        return query.run();
+    }
+    
+    /**
+     * Count, sum and average documents per group in one pass over the stored documents, split
+     * across threads for large collections. Reads current data without taking locks, like find().
+     */
+    public static Map<Object, Aggregation.Group> aggregate(Aggregation aggregation) {
+        String collection = aggregation.collection();
+        Map<String, Map<String, Object>> documents = getCollection(collection);
+        ArchiveStore archive = getArchive(collection);
+    
+        Stream<Map<String, Object>> archived = archive.ids().stream()
+                .map(archive::get)
+                .filter(Objects::nonNull);
+        return aggregation.run(Stream.concat(documents.values().stream(), archived),
+                documents.size() + archive.size());
+    }
+    
+    public static boolean update(String collection, String id, Map<String, Object> updates) {
         try {
-            Map<String, Map<String, Object>> coll = getCollection(collection);
-            Map<String, Object> document = coll.get(id);
+            long commitSeq;
             
-            if (document != null) {
-                // Update fields
-                document.putAll(updates);
-                document.put("updatedAt", System.currentTimeMillis());
+            CollectionLock.Held held = getLock(collection).lock(id, hasUniqueIndex(collection, updates.keySet()));
+            try {
+                // An archived document comes back into memory to be changed
+                Map<String, Object> current = lookup(collection, id);
+                if (current == null) return false;
                 
-                // Persist immediately
-                saveCollection(collection);
+                // Reject duplicates, then drop index entries for the old values
+                for (HashIndex index : getIndexes(collection)) {
+                    if (updates.containsKey(index.getField())) {
+                        index.checkUnique(id, updates.get(index.getField()));
+                    }
+                }
                 
-                System.out.println("✏️ [" + collection + "] Updated document ID: " + id);
-                return true;
+                // Swap in a new version; readers holding the old one are unaffected
+                Map<String, Object> changes = new HashMap<>(updates);
+                changes.put("updatedAt", System.currentTimeMillis());
+                Map<String, Object> document = Documents.withUpdates(current, changes);
+                commitSeq = appendToLog(collection, "update", id, document);
+                storeVersion(collection, id, current, document);
+            } finally {
+                held.close();
             }
-            return false;
+            
+            awaitCommit(collection, commitSeq);
+            System.out.println("✏️ [" + collection + "] Updated document ID: " + id);
+            return true;
             
         } catch (Exception e) {
             System.err.println("❌ Failed to update document: " + e.getMessage());
@@ -132,19 +365,23 @@ public class DatabaseManager {
         }
     }
     
-    public static synchronized boolean delete(String collection, String id) {
+    public static boolean delete(String collection, String id) {
         try {
-            Map<String, Map<String, Object>> coll = getCollection(collection);
-            Map<String, Object> removed = coll.remove(id);
+            long commitSeq;
             
-            if (removed != null) {
-                // Persist immediately
-                saveCollection(collection);
-                
-                System.out.println("🗑️ [" + collection + "] Deleted document ID: " + id);
-                return true;
+            CollectionLock.Held held = getLock(collection).lock(id, false);
+            try {
+                Map<String, Object> removed = lookup(collection, id);
+                if (removed == null) return false;
+                commitSeq = appendToLog(collection, "delete", id, null);
+                storeVersion(collection, id, removed, null);
+            } finally {
+                held.close();
             }
-            return false;
+            
+            awaitCommit(collection, commitSeq);
+            System.out.println("🗑️ [" + collection + "] Deleted document ID: " + id);
+            return true;
             
         } catch (Exception e) {
             System.err.println("❌ Failed to delete document: " + e.getMessage());
@@ -152,285 +389,1046 @@ public class DatabaseManager {
         }
     }
     
+    /**
+     * Start a multi-document transaction. Its writes are buffered until commit(), which applies
+     * them all or none, with one log record per collection instead of one per document.
+     */
+    public static Transaction beginTransaction() {
+        return new Transaction();
+    }
+    
+    static boolean commitTransaction(List<Transaction.Operation> operations) {
+        if (operations.isEmpty()) return true;
+    
+        Set<String> collections = new TreeSet<>();
+        for (Transaction.Operation operation : operations) {
+            collections.add(operation.collection);
+        }
+    
+        // Lock every collection involved, always in name order so transactions cannot deadlock
+        Deque<CollectionLock.Held> held = new ArrayDeque<>();
+        try {
+            for (String collection : collections) {
+                held.push(getLock(collection).lockCollection());
+            }
+    
+            // Work out every new version first; nothing is stored unless all operations succeed
+            Map<String, Map<String, Map<String, Object>>> originals = new HashMap<>();
+            Map<String, Map<String, Map<String, Object>>> changes = new TreeMap<>();
+            long now = System.currentTimeMillis();
+            for (Transaction.Operation operation : operations) {
+                Map<String, Map<String, Object>> before = originals.computeIfAbsent(operation.collection, k -> new HashMap<>());
+                Map<String, Map<String, Object>> after = changes.computeIfAbsent(operation.collection, k -> new LinkedHashMap<>());
+                if (!before.containsKey(operation.id)) {
+                    before.put(operation.id, lookup(operation.collection, operation.id));
+                }
+                Map<String, Object> current = after.containsKey(operation.id) ? after.get(operation.id) : before.get(operation.id);
+    
+                if (operation.type == Transaction.Type.INSERT) {
+                    operation.document.put("createdAt", now);
+                    operation.document.put("updatedAt", now);
+                    after.put(operation.id, Documents.freeze(operation.document));
+                    continue;
+                }
+                if (current == null) {
+                    throw new IllegalStateException("Document " + operation.id + " not found in " + operation.collection);
+                }
+                if (operation.type == Transaction.Type.UPDATE) {
+                    operation.document.put("updatedAt", now);
+                    after.put(operation.id, Documents.withUpdates(current, operation.document));
+                } else {
+                    after.put(operation.id, null);
+                }
+            }
+            for (Map.Entry<String, Map<String, Map<String, Object>>> entry : changes.entrySet()) {
+                checkUnique(entry.getKey(), entry.getValue());
+            }
+    
+            // The transaction is committed once every part is on disk, so wait for them even if writers normally do not
+            long txn = transactionCounter.incrementAndGet();
+            Map<String, Long> commitSeqs = new LinkedHashMap<>();
+            try {
+                for (Map.Entry<String, Map<String, Map<String, Object>>> entry : changes.entrySet()) {
+                    String record = transactionRecord(txn, collections, entry.getValue(), originals.get(entry.getKey()));
+                    commitSeqs.put(entry.getKey(), getLog(entry.getKey()).append(record));
+                }
+                if (groupCommitMs > 0) {
+                    for (Map.Entry<String, Long> entry : commitSeqs.entrySet()) {
+                        getLog(entry.getKey()).awaitDurable(entry.getValue());
+                    }
+                }
+            } catch (IOException e) {
+                abortTransaction(txn, commitSeqs.keySet());
+                throw e;
+            }
+    
+            // Read views open either before every change or after all of them
+            history.beginWrite();
+            try {
+                for (Map.Entry<String, Map<String, Map<String, Object>>> entry : changes.entrySet()) {
+                    String collection = entry.getKey();
+                    for (Map.Entry<String, Map<String, Object>> change : entry.getValue().entrySet()) {
+                        Map<String, Object> previous = originals.get(collection).get(change.getKey());
+                        storeVersion(collection, change.getKey(), previous, change.getValue());
+                    }
+                    lastTransaction.put(collection, txn);
+                }
+            } finally {
+                history.endWrite();
+            }
+    
+            System.out.println("🔐 Committed transaction " + txn + " (" + operations.size() + " operations on " + collections + ")");
+            return true;
+    
+        } catch (Exception e) {
+            System.err.println("❌ Transaction failed, nothing was changed: " + e.getMessage());
+            return false;
+        } finally {
+            while (!held.isEmpty()) {
+                held.pop().close();
+            }
+        }
+    }
+    
+    // Unique constraints across a transaction's changes; documents it replaces or deletes no longer hold their values
+    private static void checkUnique(String collection, Map<String, Map<String, Object>> changes) {
+        for (HashIndex index : getIndexes(collection)) {
+            if (!index.isUnique()) continue;
+    
+            Map<Object, String> claimed = new HashMap<>();
+            for (Map.Entry<String, Map<String, Object>> change : changes.entrySet()) {
+                Object value = change.getValue() != null ? change.getValue().get(index.getField()) : null;
+                if (value == null) continue;
+    
+                boolean taken = claimed.putIfAbsent(value, change.getKey()) != null;
+                for (String holder : index.lookup(value)) {
+                    taken |= !changes.containsKey(holder);
+                }
+                if (taken) {
+                    throw new IllegalStateException("Duplicate value '" + value + "' for unique index on " + index.getField());
+                }
+            }
+        }
+    }
+    
+    // Mark a transaction's parts as void, so recovery never applies them even if all were written
+    private static void abortTransaction(long txn, Collection<String> collections) {
+        for (String collection : collections) {
+            try {
+                long seq = getLog(collection).append("{\"op\":\"abort\",\"txn\":" + txn + "}");
+                if (groupCommitMs > 0) {
+                    getLog(collection).awaitDurable(seq);
+                }
+            } catch (IOException e) {
+                System.err.println("❌ [" + collection + "] Failed to log abort of transaction " + txn + ": " + e.getMessage());
+            }
+        }
+    }
+    
     public static long count(String collection) {
-        return getCollection(collection).size();
+        return getCollection(collection).size() + getArchive(collection).size();
     }
     
     // Collection management
     private static Map<String, Map<String, Object>> getCollection(String collection) {
+        awaitLoaded(collection);
         return database.computeIfAbsent(collection, k -> new ConcurrentHashMap<>());
     }
     
-    // Persistence operations
-    private static void saveCollection(String collection) {
+    // Load a collection registered at startup, or wait while another thread loads it
+    static void awaitLoaded(String collection) {
+        PendingLoad pending = pendingLoads.get(collection);
+        if (pending != null) {
+            pending.load();
+        }
+    }
+    
+    private static CollectionLock getLock(String collection) {
+        return locks.computeIfAbsent(collection, k -> new CollectionLock());
+    }
+    
+    private static ArchiveStore getArchive(String collection) {
+        awaitLoaded(collection);
+        return archives.computeIfAbsent(collection, k -> new ArchiveStore(new File(DATA_DIR), k));
+    }
+    
+    // Read a document from memory, or decode it from the archive
+    private static Map<String, Object> lookup(String collection, String id) {
+        Map<String, Object> doc = getCollection(collection).get(id);
+        return doc != null ? doc : getArchive(collection).get(id);
+    }
+    
+    static void forEachDocument(String collection, BiConsumer<String, Map<String, Object>> action) {
+        getCollection(collection).forEach(action);
+        getArchive(collection).forEach(action);
+    }
+    
+    /**
+     * Swap in a new version of a document (null deletes it), keeping the replaced one for open
+     * read views. The index entries move in the same step, so a view never finds the new
+     * version under a stale index entry.
+     */
+    private static void storeVersion(String collection, String id, Map<String, Object> previous, Map<String, Object> next) {
+        Map<String, Map<String, Object>> coll = getCollection(collection);
+        history.beginWrite();
         try {
-            File file = new File(DATA_DIR, collection + ".json");
-            Map<String, Map<String, Object>> coll = getCollection(collection);
-            
-            try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
-                writer.println(collectionToJson(coll));
+            history.record(collection, id, previous);
+            if (next != null) {
+                coll.put(id, next);
+            } else {
+                coll.remove(id);
             }
-            
-        } catch (Exception e) {
-            System.err.println("❌ Failed to save collection " + collection + ": " + e.getMessage());
+            if (previous != null) {
+                unindexDocument(collection, id, previous);
+            }
+            if (next != null) {
+                indexDocument(collection, id, next);
+            }
+        } finally {
+            history.endWrite();
+        }
+        for (MaterializedAggregate aggregate : aggregates.getOrDefault(collection, Collections.emptyList())) {
+            aggregate.replace(previous, next);
+        }
+        for (ChangeLog changeLog : changeLogs.getOrDefault(collection, Collections.emptyList())) {
+            changeLog.record(id, previous, next);
+        }
+        
+        // The stored version supersedes any archived copy
+        ArchiveStore archive = getArchive(collection);
+        if (archive.contains(id)) {
+            archive.tombstone(id);
         }
     }
     
-    private static void loadAllCollections() {
+    // Accessors for read views
+    static Map<String, Map<String, Object>> storedDocuments(String collection) {
+        return getCollection(collection);
+    }
+    
+    static ArchiveStore archiveOf(String collection) {
+        return getArchive(collection);
+    }
+    
+    static HashIndex hashIndex(String collection, String field) {
+        return indexes.getOrDefault(collection, Collections.emptyMap()).get(field);
+    }
+    
+    static SortedIndex sortedIndex(String collection, String field) {
+        return sortedIndexes.getOrDefault(collection, Collections.emptyMap()).get(field);
+    }
+    
+    // Index management
+    /**
+     * Declare a secondary hash index on a field so findByField on it becomes a direct lookup.
+     * A unique index rejects inserts and updates that would duplicate an existing value;
+     * returns false if existing data already holds duplicates. Repeated calls are no-ops.
+     */
+    public static boolean createIndex(String collection, String field, boolean unique) {
+        // A collection still on disk builds its indexes as it loads
+        PendingLoad pending = pendingLoads.get(collection);
+        if (pending != null && pending.declareIndex(field, unique)) {
+            System.out.println("🔎 [" + collection + "] Index on " + field + " will be built when the collection loads");
+            return true;
+        }
+        
+        HashIndex index;
+        CollectionLock.Held held = getLock(collection).lockCollection();
         try {
-            File dataDir = new File(DATA_DIR);
-            if (!dataDir.exists()) return;
-            
-            File[] files = dataDir.listFiles((dir, name) -> name.endsWith(".json"));
-            if (files == null) return;
-            
-            for (File file : files) {
-                String collection = file.getName().replace(".json", "");
-                loadCollection(collection);
-            }
-            
-        } catch (Exception e) {
-            System.err.println("❌ Failed to load collections: " + e.getMessage());
+            if (hashIndex(collection, field) != null) return true;
+            index = addIndex(collection, field, unique);
+        } finally {
+            held.close();
         }
+        System.out.println("🔎 [" + collection + "] Created " + (index.isUnique() ? "unique " : "") + "index on: " + field);
+        return index.isUnique() == unique;
     }
     
-    private static void loadCollection(String collection) {
+    // Declare an ordered index on a field for findRange queries; repeated calls are no-ops
+    public static void createSortedIndex(String collection, String field) {
+        PendingLoad pending = pendingLoads.get(collection);
+        if (pending != null && pending.declareSortedIndex(field)) {
+            System.out.println("🔎 [" + collection + "] Sorted index on " + field + " will be built when the collection loads");
+            return;
+        }
+        
+        CollectionLock.Held held = getLock(collection).lockCollection();
         try {
-            File file = new File(DATA_DIR, collection + ".json");
-            if (!file.exists()) return;
-            
-            StringBuilder content = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    content.append(line);
-                }
+            if (sortedIndex(collection, field) != null) return;
+            addSortedIndex(collection, field);
+        } finally {
+            held.close();
+        }
+        System.out.println("🔎 [" + collection + "] Created sorted index on: " + field);
+    }
+    
+    /**
+     * Keep an aggregation's results up to date as documents change, so reading them costs
+     * nothing however large the collection grows. Computed once now, or when the collection loads.
+     */
+    public static MaterializedAggregate materialize(Aggregation aggregation) {
+        String collection = aggregation.collection();
+        MaterializedAggregate aggregate = new MaterializedAggregate(aggregation);
+        PendingLoad pending = pendingLoads.get(collection);
+        if (pending != null && pending.declareAggregate(aggregate)) {
+            return aggregate;
+        }
+        
+        CollectionLock.Held held = getLock(collection).lockCollection();
+        try {
+            addAggregate(aggregate);
+        } finally {
+            held.close();
+        }
+        return aggregate;
+    }
+    
+    /**
+     * Number every later write to a collection and remember it under the document's value of a
+     * field, so clients can ask what changed for that value since a version they already have.
+     * Needs no existing data, so a collection still on disk is not loaded for it.
+     */
+    public static ChangeLog trackChanges(String collection, String field) {
+        ChangeLog changeLog = new ChangeLog(field);
+        changeLogs.computeIfAbsent(collection, k -> new CopyOnWriteArrayList<>()).add(changeLog);
+        return changeLog;
+    }
+    
+    // Build and register an index; callers hold the collection lock or are loading the collection
+    private static HashIndex addIndex(String collection, String field, boolean unique) {
+        HashIndex index = buildIndex(collection, field, unique);
+        if (index == null) {
+            // Existing data breaks the constraint; still index the field for lookups
+            System.err.println("⚠️ [" + collection + "] Duplicate values for " + field + ", creating a non-unique index instead");
+            index = buildIndex(collection, field, false);
+        }
+        indexes.computeIfAbsent(collection, k -> new ConcurrentHashMap<>()).put(field, index);
+        return index;
+    }
+    
+    private static void addSortedIndex(String collection, String field) {
+        SortedIndex index = new SortedIndex(field);
+        forEachDocument(collection, index::add);
+        sortedIndexes.computeIfAbsent(collection, k -> new ConcurrentHashMap<>()).put(field, index);
+    }
+    
+    private static void addAggregate(MaterializedAggregate aggregate) {
+        forEachDocument(aggregate.collection(), (id, document) -> aggregate.replace(null, document));
+        aggregates.computeIfAbsent(aggregate.collection(), k -> new CopyOnWriteArrayList<>()).add(aggregate);
+    }
+    
+    private static HashIndex buildIndex(String collection, String field, boolean unique) {
+        HashIndex index = new HashIndex(field, unique);
+        try {
+            forEachDocument(collection, (id, document) -> {
+                index.checkUnique(id, document.get(field));
+                index.add(id, document);
+            });
+            return index;
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+    
+    private static Collection<HashIndex> getIndexes(String collection) {
+        return indexes.getOrDefault(collection, Collections.emptyMap()).values();
+    }
+    
+    private static boolean hasUniqueIndex(String collection, Set<String> fields) {
+        for (HashIndex index : getIndexes(collection)) {
+            if (index.isUnique() && fields.contains(index.getField())) return true;
+        }
+        return false;
+    }
+    
+    private static void indexDocument(String collection, String id, Map<String, Object> document) {
+        for (HashIndex index : getIndexes(collection)) {
+            index.add(id, document);
+        }
+        for (SortedIndex index : sortedIndexes.getOrDefault(collection, Collections.emptyMap()).values()) {
+            index.add(id, document);
+        }
+    }
+    
+    private static void unindexDocument(String collection, String id, Map<String, Object> document) {
+        for (HashIndex index : getIndexes(collection)) {
+            index.remove(id, document.get(index.getField()));
+        }
+        for (SortedIndex index : sortedIndexes.getOrDefault(collection, Collections.emptyMap()).values()) {
+            index.remove(id, document.get(index.getField()));
+        }
+    }
+    
+    // Persistence operations
+    private static OperationLog getLog(String collection) {
+        return logs.computeIfAbsent(collection, k -> new OperationLog(new File(DATA_DIR, k + LOG_SUFFIX), groupCommitMs > 0));
+    }
+    
+    /**
+     * Wait outside the collection lock so other writers can join the same flush. A write is
+     * accepted once it is logged and stored: a failed flush keeps its record queued for the next
+     * one, so the caller still succeeds and only hears that the write is not durable yet.
+     */
+    private static void awaitCommit(String collection, long commitSeq) {
+        if (groupCommitMs > 0 && waitForCommit) {
+            try {
+                getLog(collection).awaitDurable(commitSeq);
+            } catch (IOException e) {
+                System.err.println("⚠️ [" + collection + "] Write not durable yet, its flush will be retried: " + e.getMessage());
             }
-            
-            if (content.length() > 0) {
-                Map<String, Map<String, Object>> coll = jsonToCollection(content.toString());
-                database.put(collection, coll);
-                System.out.println("📂 Loaded collection: " + collection + " (" + coll.size() + " documents)");
+        }
+    }
+    
+    private static long appendToLog(String collection, String op, String id, Map<String, Object> document) throws IOException {
+        StringBuilder record = new StringBuilder();
+        writeLogRecord(record, op, id, document);
+        return getLog(collection).append(record.toString());
+    }
+    
+    private static void writeLogRecord(StringBuilder record, String op, String id, Map<String, Object> document) {
+        record.append("{");
+        record.append("\"op\":\"").append(op).append("\",");
+        record.append("\"id\":");
+        JsonWriter.writeString(record, id);
+        if (document != null) {
+            record.append(",\"doc\":");
+            JsonWriter.writeValue(record, document);
+        }
+        record.append("}");
+    }
+    
+    // One collection's part of a transaction, naming every collection that holds a part
+    private static String transactionRecord(long txn, Set<String> collections, Map<String, Map<String, Object>> changes,
+                                            Map<String, Map<String, Object>> originals) {
+        StringBuilder record = new StringBuilder("{\"op\":\"txn\",\"txn\":").append(txn).append(",\"collections\":");
+        JsonWriter.writeValue(record, new ArrayList<>(collections));
+        record.append(",\"changes\":[");
+        String separator = "";
+        for (Map.Entry<String, Map<String, Object>> change : changes.entrySet()) {
+            record.append(separator);
+            String op = change.getValue() == null ? "delete" : originals.get(change.getKey()) == null ? "insert" : "update";
+            writeLogRecord(record, op, change.getKey(), change.getValue());
+            separator = ",";
+        }
+        return record.append("]}").toString();
+    }
+    
+    // Parse log records, stopping at the first one that cannot be read
+    private static List<Map<String, Object>> parseLog(String collection, List<String> records) {
+        List<Map<String, Object>> entries = new ArrayList<>();
+        try {
+            for (String record : records) {
+                entries.add(new JsonReader(new StringReader(record)).readObject());
             }
-            
         } catch (Exception e) {
-            System.err.println("❌ Failed to load collection " + collection + ": " + e.getMessage());
+            System.err.println("❌ Failed to replay log for " + collection + ": " + e.getMessage());
         }
+        return entries;
     }
     
-    private static void updateNextId() {
-        int maxId = 0;
-        for (Map<String, Map<String, Object>> collection : database.values()) {
-            for (Map<String, Object> doc : collection.values()) {
-                Object idObj = doc.get("id");
-                if (idObj instanceof Number) {
-                    maxId = Math.max(maxId, ((Number) idObj).intValue());
+    // Apply logged operations on top of the loaded collection file; transaction parts only if it committed
+    @SuppressWarnings("unchecked")
+    private static int replayLog(String collection, List<Map<String, Object>> entries, Set<Long> committed) {
+        int applied = 0;
+        for (Map<String, Object> entry : entries) {
+            if (!"txn".equals(entry.get("op"))) {
+                applied += replayEntry(collection, entry) ? 1 : 0;
+                continue;
+            }
+    
+            long txn = ((Number) entry.get("txn")).longValue();
+            if (!committed.contains(txn) || !(entry.get("changes") instanceof List)) continue;
+            for (Object change : (List<Object>) entry.get("changes")) {
+                if (change instanceof Map) {
+                    applied += replayEntry(collection, (Map<String, Object>) change) ? 1 : 0;
                 }
             }
+            lastTransaction.put(collection, txn);
         }
-        nextId = maxId + 1;
-        System.out.println("🔢 Next ID set to: " + nextId);
+        return applied;
     }
     
-    // JSON serialization
-    private static String collectionToJson(Map<String, Map<String, Object>> collection) {
-        StringBuilder json = new StringBuilder("{");
-        boolean first = true;
-        
-        for (Map.Entry<String, Map<String, Object>> entry : collection.entrySet()) {
-            if (!first) json.append(",");
-            json.append("\"").append(entry.getKey()).append("\":");
-            json.append(documentToJson(entry.getValue()));
-            first = false;
+    @SuppressWarnings("unchecked")
+    private static boolean replayEntry(String collection, Map<String, Object> entry) {
+        Object op = entry.get("op");
+        Object id = entry.get("id");
+        if (op == null || id == null) return false;
+    
+        Map<String, Map<String, Object>> coll = getCollection(collection);
+        if ("delete".equals(op)) {
+            coll.remove(id.toString());
+            ArchiveStore archive = getArchive(collection);
+            if (archive.contains(id.toString())) {
+                archive.tombstone(id.toString());
+            }
+            return true;
         }
-        
-        json.append("}");
-        return json.toString();
+        Object doc = entry.get("doc");
+        if (!(doc instanceof Map)) return false;
+        coll.put(id.toString(), Documents.freeze((Map<String, Object>) doc));
+        return true;
     }
     
-    private static String documentToJson(Map<String, Object> document) {
-        StringBuilder json = new StringBuilder("{");
-        boolean first = true;
-        
-        for (Map.Entry<String, Object> entry : document.entrySet()) {
-            if (!first) json.append(",");
-            json.append("\"").append(escapeJson(entry.getKey())).append("\":");
-            json.append(valueToJson(entry.getValue()));
-            first = false;
+    /**
+     * Decide which logged transactions committed. A transaction whose part is missing from a
+     * collection that has no snapshot taken after it was cut short by a crash; it is aborted for
+     * good, so a later snapshot cannot make it look complete.
+     */
+    @SuppressWarnings("unchecked")
+    private static Set<Long> committedTransactions(Map<String, List<Map<String, Object>>> entries) {
+        Map<Long, Set<String>> logged = new HashMap<>();
+        Map<Long, List<Object>> participants = new HashMap<>();
+        Set<Long> aborted = new HashSet<>();
+        long highest = 0;
+        for (Long txn : lastTransaction.values()) {
+            highest = Math.max(highest, txn);
         }
-        
-        json.append("}");
-        return json.toString();
-    }
     
-    private static String valueToJson(Object value) {
-        if (value == null) return "null";
-        if (value instanceof String) return "\"" + escapeJson(value.toString()) + "\"";
-        if (value instanceof Number || value instanceof Boolean) return value.toString();
-        if (value instanceof Map) return documentToJson((Map<String, Object>) value);
-        return "\"" + escapeJson(value.toString()) + "\"";
+        for (Map.Entry<String, List<Map<String, Object>>> collection : entries.entrySet()) {
+            for (Map<String, Object> entry : collection.getValue()) {
+                if (!(entry.get("txn") instanceof Number)) continue;
+                long txn = ((Number) entry.get("txn")).longValue();
+                highest = Math.max(highest, txn);
+                if ("abort".equals(entry.get("op"))) {
+                    aborted.add(txn);
+                } else if (entry.get("collections") instanceof List) {
+                    logged.computeIfAbsent(txn, k -> new HashSet<>()).add(collection.getKey());
+                    participants.put(txn, (List<Object>) entry.get("collections"));
+                }
+            }
+        }
+        transactionCounter.set(highest);
+    
+        Set<Long> committed = new HashSet<>();
+        for (Map.Entry<Long, Set<String>> entry : logged.entrySet()) {
+            long txn = entry.getKey();
+            if (aborted.contains(txn)) continue;
+    
+            boolean complete = true;
+            for (Object participant : participants.get(txn)) {
+                String collection = participant.toString();
+                complete &= entry.getValue().contains(collection) || lastTransaction.getOrDefault(collection, 0L) >= txn;
+            }
+            if (complete) {
+                committed.add(txn);
+            } else {
+                System.err.println("⚠️ Transaction " + txn + " was interrupted before all its parts were written, discarding it");
+                abortTransaction(txn, entry.getValue());
+            }
+        }
+        return committed;
     }
     
-    private static String escapeJson(String str) {
-        return str.replace("\\", "\\\\")
-                  .replace("\"", "\\\"")
-                  .replace("\n", "\\n")
-                  .replace("\r", "\\r")
-                  .replace("\t", "\\t");
+    /**
+     * Write a point-in-time image of a collection and drop the log records it covers.
+     * Writers are held only while the documents are copied and the log is rotated;
+     * the snapshot itself is written without any lock.
+     */
+    static void compactCollection(String collection) {
+        // Nothing to fold in until the collection is loaded
+        if (pendingLoads.containsKey(collection)) return;
+        compactCollection(collection, false);
     }
     
-    // JSON deserialization (simplified)
-    private static Map<String, Map<String, Object>> jsonToCollection(String json) {
-        Map<String, Map<String, Object>> collection = new ConcurrentHashMap<>();
-        
+    private static void compactCollection(String collection, boolean force) {
         try {
-            // Simple JSON parsing for our use case
-            json = json.trim();
-            if (json.startsWith("{") && json.endsWith("}")) {
-                json = json.substring(1, json.length() - 1);
+            OperationLog log = getLog(collection);
+            File segment = compactingSegment(collection);
+            Map<String, Map<String, Object>> image = new HashMap<>();
+            Map<String, Map<String, Object>> closed = new HashMap<>();
+            Predicate<Map<String, Object>> archivable = archivePolicies.get(collection);
+            ArchiveStore archive = getArchive(collection);
+            Map<String, Integer> tombstones;
+            long tombstoneVersion;
+            long txn;
+            
+            CollectionLock.Held held = getLock(collection).lockCollection();
+            try {
+                if (!force && log.recordCount() == 0 && !segment.exists()) return;
                 
-                // Parse each document
-                String[] parts = splitJsonObjects(json);
-                for (String part : parts) {
-                    String[] keyValue = part.split(":", 2);
-                    if (keyValue.length == 2) {
-                        String key = keyValue[0].trim().replaceAll("\"", "");
-                        String docJson = keyValue[1].trim();
-                        
-                        Map<String, Object> document = parseJsonDocument(docJson);
-                        if (!document.isEmpty()) {
-                            collection.put(key, document);
-                        }
+                // Stored versions are immutable, so the image shares them instead of copying
+                for (Map.Entry<String, Map<String, Object>> entry : getCollection(collection).entrySet()) {
+                    image.put(entry.getKey(), entry.getValue());
+                    if (archivable != null && archivable.test(entry.getValue())) {
+                        closed.put(entry.getKey(), entry.getValue());
                     }
                 }
+                tombstones = archive.pendingTombstones();
+                tombstoneVersion = archive.tombstoneVersion();
+                txn = lastTransaction.getOrDefault(collection, 0L);
+                
+                // A segment left by a failed compaction is still needed until a snapshot succeeds
+                if (!segment.exists()) {
+                    log.rotateTo(segment);
+                }
+            } finally {
+                held.close();
+            }
+            
+            // Archive closed documents before the snapshot that leaves them out
+            ArchiveSegment archived = null;
+            if (!closed.isEmpty()) {
+                try {
+                    archived = archive.writeSegment(closed);
+                    image.keySet().removeAll(closed.keySet());
+                } catch (IOException e) {
+                    System.err.println("⚠️ [" + collection + "] Failed to archive " + closed.size() + " documents, keeping them in memory: " + e.getMessage());
+                }
+            }
+            
+            // Deleted archive entries must be durable before the log records that deleted them are dropped
+            if (tombstones != null) {
+                archive.saveTombstones(tombstones, tombstoneVersion);
+            }
+            
+            boolean saved = saveCollection(collection, image, txn);
+            if (archived != null) {
+                releaseArchived(collection, archived, closed, saved);
+            }
+            if (saved) {
+                // Keep the covered records until the next snapshot, so the backup snapshot stays recoverable
+                if (segment.exists()) {
+                    Files.move(segment.toPath(), previousSegment(collection).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                System.out.println("📸 [" + collection + "] Snapshot written (" + image.size() + " documents"
+                        + (archived != null ? ", " + archived.ids().size() + " archived" : "") + "), log compacted");
             }
             
         } catch (Exception e) {
-            System.err.println("❌ Failed to parse collection JSON: " + e.getMessage());
+            System.err.println("❌ Failed to compact collection " + collection + ": " + e.getMessage());
         }
-        
-        return collection;
     }
     
-    private static String[] splitJsonObjects(String json) {
-        List<String> objects = new ArrayList<>();
-        StringBuilder current = new StringBuilder();
-        int braceLevel = 0;
-        boolean inQuotes = false;
-        
-        for (int i = 0; i < json.length(); i++) {
-            char c = json.charAt(i);
+    // Drop archived documents from memory unless they changed while their segment was written
+    private static void releaseArchived(String collection, ArchiveSegment archived,
+                                        Map<String, Map<String, Object>> closed, boolean saved) {
+        CollectionLock.Held held = getLock(collection).lockCollection();
+        try {
+            Map<String, Map<String, Object>> coll = getCollection(collection);
+            List<String> moved = new ArrayList<>();
+            if (saved) {
+                for (Map.Entry<String, Map<String, Object>> entry : closed.entrySet()) {
+                    if (coll.get(entry.getKey()) == entry.getValue()) {
+                        moved.add(entry.getKey());
+                    }
+                }
+            }
             
-            if (c == '"' && (i == 0 || json.charAt(i - 1) != '\\')) {
-                inQuotes = !inQuotes;
+            // Publish before dropping the in-memory copies so lock-free readers always find the document
+            getArchive(collection).publish(archived, moved);
+            for (String id : moved) {
+                coll.remove(id);
             }
+        } finally {
+            held.close();
+        }
+    }
+    
+    // Snapshot format management
+    public static StorageFormat getStorageFormat(String collection) {
+        return storageFormats.getOrDefault(collection, StorageFormat.JSON);
+    }
+    
+    // Select the snapshot format; takes effect with the collection's next snapshot
+    public static void setStorageFormat(String collection, StorageFormat format) {
+        storageFormats.put(collection, format);
+    }
+    
+    /**
+     * Convert a collection to the given format now by writing a fresh snapshot.
+     * The snapshot in the old format is removed once the new one has a backup behind it.
+     */
+    public static void convertCollection(String collection, StorageFormat format) {
+        setStorageFormat(collection, format);
+        compactCollection(collection, true);
+        System.out.println("🔄 [" + collection + "] Stored as " + format + " (" + snapshotFile(collection, format).length() + " bytes)");
+    }
+    
+    private static File snapshotFile(String collection, StorageFormat format) {
+        return new File(DATA_DIR, collection + format.getExtension());
+    }
+    
+    private static StorageFormat otherFormat(StorageFormat format) {
+        return format == StorageFormat.JSON ? StorageFormat.BINARY : StorageFormat.JSON;
+    }
+    
+    private static File compactingSegment(String collection) {
+        return new File(DATA_DIR, collection + LOG_SUFFIX + COMPACTING_SUFFIX);
+    }
+    
+    private static File previousSegment(String collection) {
+        return new File(DATA_DIR, collection + LOG_SUFFIX + PREVIOUS_SUFFIX);
+    }
+    
+    private static boolean saveCollection(String collection, Map<String, Map<String, Object>> image, long txn) {
+        try {
+            StorageFormat format = getStorageFormat(collection);
+            byte[] payload = format == StorageFormat.BINARY
+                    ? BinaryCodec.encodeCollection(image)
+                    : JsonWriter.collectionToJson(image).getBytes(StandardCharsets.UTF_8);
+            File file = snapshotFile(collection, format);
+            SnapshotFiles.write(file, payload, txn);
             
-            if (!inQuotes) {
-                if (c == '{') braceLevel++;
-                else if (c == '}') braceLevel--;
-                else if (c == ',' && braceLevel == 0) {
-                    objects.add(current.toString().trim());
-                    current = new StringBuilder();
-                    continue;
-                }
+            // Drop the other format once this one has a backup to fall back on
+            if (SnapshotFiles.backupOf(file).exists()) {
+                File stale = snapshotFile(collection, otherFormat(format));
+                Files.deleteIfExists(stale.toPath());
+                Files.deleteIfExists(SnapshotFiles.backupOf(stale).toPath());
             }
+            return true;
             
-            current.append(c);
-        }
-        
-        if (current.length() > 0) {
-            objects.add(current.toString().trim());
+        } catch (Exception e) {
+            System.err.println("❌ Failed to save collection " + collection + ": " + e.getMessage());
+            return false;
         }
-        
-        return objects.toArray(new String[0]);
     }
     
-    private static Map<String, Object> parseJsonDocument(String json) {
-        Map<String, Object> document = new HashMap<>();
-        
+    private static void loadAllCollections() {
         try {
-            json = json.trim();
-            if (json.startsWith("{") && json.endsWith("}")) {
-                json = json.substring(1, json.length() - 1);
-                
-                String[] pairs = splitJsonPairs(json);
-                for (String pair : pairs) {
-                    String[] keyValue = pair.split(":", 2);
-                    if (keyValue.length == 2) {
-                        String key = keyValue[0].trim().replaceAll("\"", "");
-                        String value = keyValue[1].trim();
-                        
-                        Object parsedValue = parseJsonValue(value);
-                        document.put(key, parsedValue);
+            File dataDir = new File(DATA_DIR);
+            if (!dataDir.exists()) return;
+            
+            File[] files = dataDir.listFiles((dir, name) ->
+                    (name.contains(StorageFormat.JSON.getExtension()) || name.contains(StorageFormat.BINARY.getExtension())
+                            || name.contains(LOG_SUFFIX) || name.contains(ArchiveStore.SEGMENT_INFIX)) && !name.endsWith(".tmp"));
+            if (files == null) return;
+            
+            Set<String> collections = new TreeSet<>();
+            for (File file : files) {
+                String name = file.getName();
+                collections.add(name.substring(0, name.indexOf('.')));
+            }
+            
+            // Read every log first: a transaction is replayed only if all its parts were written
+            loader = new ForkJoinPool(LOAD_PARALLELISM);
+            Map<String, PendingLoad> registered = new ConcurrentHashMap<>();
+            inParallel(loader, collections, collection -> registered.put(collection, registerCollection(collection)));
+            Map<String, List<Map<String, Object>>> entries = new HashMap<>();
+            for (PendingLoad pending : registered.values()) {
+                List<Map<String, Object>> all = new ArrayList<>(pending.previous);
+                all.addAll(pending.entries);
+                entries.put(pending.collection, all);
+            }
+            Set<Long> committed = committedTransactions(entries);
+            for (PendingLoad pending : registered.values()) {
+                pending.committed = committed;
+            }
+            pendingLoads.putAll(registered);
+            
+            // Warm collections are loaded before startup finishes, the rest in the background or on first access
+            long started = System.nanoTime();
+            List<String> warm = new ArrayList<>();
+            for (String collection : collections) {
+                if (WARM_COLLECTIONS.contains("*") || WARM_COLLECTIONS.contains(collection)) {
+                    warm.add(collection);
+                }
+            }
+            inParallel(loader, warm, collection -> registered.get(collection).load());
+            System.out.println("⏱️ Loaded " + warm.size() + " of " + collections.size() + " collections in "
+                    + (System.nanoTime() - started) / 1_000_000 + "ms on " + LOAD_PARALLELISM + " threads"
+                    + (warm.size() < collections.size() ? (BACKGROUND_LOAD ? ", loading the rest in the background" : ", the rest load on first use") : ""));
+            
+            if (BACKGROUND_LOAD) {
+                for (String collection : collections) {
+                    if (!warm.contains(collection)) {
+                        loader.execute(() -> {
+                            try {
+                                registered.get(collection).load();
+                            } catch (IllegalStateException e) {
+                                // Already reported; accessing the collection reports it again
+                            }
+                        });
                     }
                 }
             }
             
         } catch (Exception e) {
-            System.err.println("❌ Failed to parse document JSON: " + e.getMessage());
+            System.err.println("❌ Failed to load collections: " + e.getMessage());
         }
-        
-        return document;
     }
     
-    private static String[] splitJsonPairs(String json) {
-        List<String> pairs = new ArrayList<>();
-        StringBuilder current = new StringBuilder();
-        boolean inQuotes = false;
-        int braceLevel = 0;
+    // Run the action for every collection on the pool and wait for all of them
+    private static void inParallel(ForkJoinPool pool, Collection<String> collections, Consumer<String> action) throws Exception {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (String collection : collections) {
+            tasks.add(pool.submit(() -> action.accept(collection)));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.get();
+        }
+    }
+    
+    // Parse a collection's log records and note the last transaction its snapshot includes, without loading it
+    private static PendingLoad registerCollection(String collection) {
+        for (File candidate : snapshotCandidates(collection)) {
+            if (!candidate.exists()) continue;
+            try {
+                lastTransaction.put(collection, SnapshotFiles.lastTransaction(candidate));
+                break;
+            } catch (IOException e) {
+                // Damaged footer, the snapshot's backup is read instead
+            }
+        }
         
-        for (int i = 0; i < json.length(); i++) {
-            char c = json.charAt(i);
+        try {
+            // A segment left by an interrupted compaction comes before the live log
+            List<String> records = new ArrayList<>(OperationLog.readRecords(compactingSegment(collection)));
+            records.addAll(getLog(collection).readRecords());
+            return new PendingLoad(collection,
+                    parseLog(collection, OperationLog.readRecords(previousSegment(collection))),
+                    parseLog(collection, records));
             
-            if (c == '"' && (i == 0 || json.charAt(i - 1) != '\\')) {
-                inQuotes = !inQuotes;
+        } catch (IOException e) {
+            System.err.println("❌ Failed to read log for " + collection + ": " + e.getMessage());
+            return new PendingLoad(collection, new ArrayList<>(), new ArrayList<>());
+        }
+    }
+    
+    // Read the snapshot, replay the log over it and build the indexes declared so far; runs once per collection
+    private static void loadRegistered(PendingLoad pending) {
+        long start = System.nanoTime();
+        String collection = pending.collection;
+        try {
+            archives.put(collection, ArchiveStore.open(new File(DATA_DIR), collection));
+        } catch (IOException e) {
+            System.err.println("❌ Failed to open archive for " + collection + ": " + e.getMessage());
+        }
+        
+        // The backup snapshot predates the records in the previous segment
+        List<Map<String, Object>> entries = pending.entries;
+        if (loadCollection(collection)) {
+            entries = new ArrayList<>(pending.previous);
+            entries.addAll(pending.entries);
+        }
+        int replayed = replayLog(collection, entries, pending.committed);
+        if (replayed > 0) {
+            System.out.println("📜 Replayed " + replayed + " logged operations for: " + collection);
+        }
+        
+        // A document in memory is newer than any archived copy, e.g. after a compaction was interrupted
+        ArchiveStore archive = getArchive(collection);
+        for (String id : getCollection(collection).keySet()) {
+            if (archive.contains(id)) {
+                archive.tombstone(id);
             }
-            
-            if (!inQuotes) {
-                if (c == '{') braceLevel++;
-                else if (c == '}') braceLevel--;
-                else if (c == ',' && braceLevel == 0) {
-                    pairs.add(current.toString().trim());
-                    current = new StringBuilder();
-                    continue;
+        }
+        
+        // Nobody else can see the collection yet, so its indexes are built without locking
+        for (Map.Entry<String, Boolean> index : pending.hashIndexes.entrySet()) {
+            addIndex(collection, index.getKey(), index.getValue());
+        }
+        for (String field : pending.sortedIndexes) {
+            addSortedIndex(collection, field);
+        }
+        for (MaterializedAggregate aggregate : pending.aggregates) {
+            addAggregate(aggregate);
+        }
+        
+        // Start the ID sequence for data written before sequences were persisted
+        try {
+            seedIdSequence(collection);
+        } catch (IOException e) {
+            System.err.println("❌ Failed to seed ID sequence for " + collection + ": " + e.getMessage());
+        }
+        System.out.println("⏱️ [" + collection + "] Loaded in " + (System.nanoTime() - start) / 1_000_000 + "ms ("
+                + count(collection) + " documents)");
+    }
+    
+    // Work that takes locks, run on the loader pool once the collection is visible
+    private static void afterLoading(String collection, List<Runnable> actions) {
+        if (compactingSegment(collection).exists()) {
+            compactCollection(collection);
+        }
+        
+        // Rewrite snapshots still stored in the other format
+        StorageFormat format = getStorageFormat(collection);
+        if (!snapshotFile(collection, format).exists() && snapshotFile(collection, otherFormat(format)).exists()) {
+            convertCollection(collection, format);
+        }
+        
+        for (Runnable action : actions) {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                System.err.println("❌ [" + collection + "] Post-load action failed: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * A collection found on disk at startup but not read yet.
+     * The first thread to need it loads it while later ones wait; the loading thread itself
+     * passes straight through, since it is the one filling the collection in.
+     */
+    private static final class PendingLoad {
+        final String collection;
+        // Records the snapshot already covers, replayed only if its backup has to be used
+        final List<Map<String, Object>> previous;
+        final List<Map<String, Object>> entries;
+        volatile Set<Long> committed = Collections.emptySet();
+        final Map<String, Boolean> hashIndexes = new LinkedHashMap<>();
+        final Set<String> sortedIndexes = new LinkedHashSet<>();
+        final List<MaterializedAggregate> aggregates = new ArrayList<>();
+        private final List<Runnable> afterLoad = new ArrayList<>();
+        private boolean loading = false;
+        private boolean done = false;
+        // Set when the load failed; the collection then stays unavailable instead of coming up incomplete
+        private IllegalStateException failure;
+        
+        PendingLoad(String collection, List<Map<String, Object>> previous, List<Map<String, Object>> entries) {
+            this.collection = collection;
+            this.previous = previous;
+            this.entries = entries;
+        }
+        
+        void load() {
+            List<Runnable> actions;
+            synchronized (this) {
+                if (failure != null) throw failure;
+                if (done || loading) return;
+                loading = true;
+                try {
+                    loadRegistered(this);
+                } catch (RuntimeException e) {
+                    System.err.println("❌ Failed to load collection " + collection + ": " + e.getMessage());
+                    failure = new IllegalStateException("Collection " + collection + " could not be loaded: " + e.getMessage(), e);
+                    loading = false;
+                    throw failure;
                 }
+                done = true;
+                pendingLoads.remove(collection, this);
+                actions = new ArrayList<>(afterLoad);
             }
-            
-            current.append(c);
+            loader.execute(() -> afterLoading(collection, actions));
+        }
+        
+        // Each returns false once the collection is loaded, and the caller acts on it directly
+        synchronized boolean declareIndex(String field, boolean unique) {
+            if (done) return false;
+            hashIndexes.putIfAbsent(field, unique);
+            return true;
         }
         
-        if (current.length() > 0) {
-            pairs.add(current.toString().trim());
+        synchronized boolean declareSortedIndex(String field) {
+            if (done) return false;
+            sortedIndexes.add(field);
+            return true;
         }
         
-        return pairs.toArray(new String[0]);
+        synchronized boolean declareAggregate(MaterializedAggregate aggregate) {
+            if (done) return false;
+            aggregates.add(aggregate);
+            return true;
+        }
+        
+        synchronized boolean defer(Runnable action) {
+            if (done) return false;
+            afterLoad.add(action);
+            return true;
+        }
+        
+        synchronized boolean failed() {
+            return failure != null;
+        }
     }
     
-    private static Object parseJsonValue(String value) {
-        value = value.trim();
+    /**
+     * Load the latest snapshot, falling back to the previous one if it is damaged; returns true
+     * when the fallback was used. Throws if snapshots exist but none can be read, since replaying
+     * the log alone would bring the collection up with documents missing.
+     */
+    private static boolean loadCollection(String collection) {
+        File[] candidates = snapshotCandidates(collection);
+        boolean found = false;
+        for (int i = 0; i < candidates.length; i++) {
+            if (!candidates[i].exists()) continue;
+            found = true;
+            try {
+                readSnapshot(collection, candidates[i]);
+                return i > 0;
+            } catch (Exception e) {
+                System.err.println("⚠️ Snapshot " + candidates[i].getName() + " is damaged (" + e.getMessage() + "), trying backup");
+            }
+        }
+        if (found) {
+            throw new IllegalStateException("No readable snapshot of " + collection + " is recent enough to replay the log onto");
+        }
+        return false;
+    }
+    
+    /**
+     * Snapshot files in the order they are tried: latest, then its backup. Right after a format
+     * switch the latest snapshot has no backup yet, and the last one in the old format stands in
+     * for it; older files miss records the kept log segments no longer hold, so they are never used.
+     */
+    private static File[] snapshotCandidates(String collection) {
+        StorageFormat format = getStorageFormat(collection);
+        File primary = snapshotFile(collection, format);
+        File other = snapshotFile(collection, otherFormat(format));
         
-        if (value.equals("null")) return null;
-        if (value.equals("true")) return true;
-        if (value.equals("false")) return false;
+        // A collection switched to a new format stays in the old one until its first snapshot
+        if (!primary.exists() && other.exists()) {
+            File swap = primary;
+            primary = other;
+            other = swap;
+        }
+        File backup = SnapshotFiles.backupOf(primary);
+        return backup.exists() ? new File[] {primary, backup} : new File[] {primary, backup, other};
+    }
+    
+    // Stream the snapshot straight into documents; the checksum is verified as the last bytes are read
+    private static void readSnapshot(String collection, File file) throws IOException {
+        if (file.length() == 0) return;
         
-        if (value.startsWith("\"") && value.endsWith("\"")) {
-            return value.substring(1, value.length() - 1)
-                       .replace("\\\"", "\"")
-                       .replace("\\n", "\n")
-                       .replace("\\r", "\r")
-                       .replace("\\t", "\t")
-                       .replace("\\\\", "\\");
+        Map<String, Map<String, Object>> coll;
+        if (file.getName().endsWith(StorageFormat.BINARY.getExtension())) {
+            try (InputStream in = new BufferedInputStream(SnapshotFiles.open(file))) {
+                coll = BinaryCodec.decodeCollection(in, new ConcurrentHashMap<>());
+            }
+        } else {
+            try (Reader reader = new InputStreamReader(SnapshotFiles.open(file), StandardCharsets.UTF_8)) {
+                coll = readCollection(new JsonReader(reader));
+            }
         }
+        coll.replaceAll((id, doc) -> Documents.freeze(doc));
+        database.put(collection, coll);
+        lastTransaction.put(collection, SnapshotFiles.lastTransaction(file));
+        System.out.println("📂 Loaded collection: " + collection + " (" + coll.size() + " documents, " + file.getName() + ")");
+    }
+    
+    private static void seedIdSequence(String collection) throws IOException {
+        if (idSequences.isSeeded(collection) || count(collection) == 0) return;
         
-        try {
-            if (value.contains(".")) {
-                return Double.parseDouble(value);
-            } else {
-                return Integer.parseInt(value);
+        long maxId = 0;
+        for (Map<String, Object> doc : getCollection(collection).values()) {
+            Object idObj = doc.get("id");
+            if (idObj instanceof Number) {
+                maxId = Math.max(maxId, ((Number) idObj).longValue());
+            }
+        }
+        for (String id : getArchive(collection).ids()) {
+            if (id.matches("\\d{1,18}")) {
+                maxId = Math.max(maxId, Long.parseLong(id));
             }
-        } catch (NumberFormatException e) {
-            return value;
         }
+        idSequences.seed(collection, maxId);
+        System.out.println("🔢 [" + collection + "] IDs continue after: " + maxId);
+    }
+    
+    // JSON deserialization
+    @SuppressWarnings("unchecked")
+    private static Map<String, Map<String, Object>> readCollection(JsonReader reader) throws IOException {
+        Map<String, Map<String, Object>> collection = new ConcurrentHashMap<>();
+        
+        reader.readMembers((id, in) -> {
+            Object document = in.readValue();
+            if (document instanceof Map && !((Map<String, Object>) document).isEmpty()) {
+                collection.put(id, (Map<String, Object>) document);
+            }
+        });
+        reader.expectEnd();
+        
+        return collection;
     }
     
     private static void initializeSampleMenuData() {
@@ -468,10 +1466,19 @@ public class DatabaseManager {
     }
     
     public static void displayDatabaseStats() {
+        Set<String> collections = new TreeSet<>(database.keySet());
+        collections.addAll(pendingLoads.keySet());
         System.out.println("\n📊 REAL-TIME DATABASE STATISTICS:");
-        System.out.println("Collections: " + database.size());
-        for (String collection : database.keySet()) {
-            System.out.println("  📁 " + collection + ": " + count(collection) + " documents");
+        System.out.println("Collections: " + collections.size());
+        for (String collection : collections) {
+            PendingLoad pending = pendingLoads.get(collection);
+            if (pending != null) {
+                System.out.println("  📁 " + collection + ": " + (pending.failed() ? "could not be loaded" : "not loaded yet"));
+                continue;
+            }
+            int archived = getArchive(collection).size();
+            System.out.println("  📁 " + collection + ": " + count(collection) + " documents"
+                    + (archived > 0 ? " (" + archived + " archived)" : ""));
         }
         System.out.println("💾 Data persisted to: " + new File(DATA_DIR).getAbsolutePath());
     }
@@ -0,0 +1,56 @@
+package com.foodieexpress.database;
+
+import java.util.*;
+
+/**
+ * Immutable document versions.
+ * Stored documents are never modified in place: a write builds a new frozen copy and swaps
+ * it into the collection, so readers share versions without locking and never see a
+ * half-applied update.
+ */
+final class Documents {
+
+    private Documents() {}
+
+    // Deep copy with unmodifiable maps and lists at every level
+    static Map<String, Object> freeze(Map<String, ?> document) {
+        Map<String, Object> copy = new HashMap<>(Math.max(16, document.size() * 2));
+        for (Map.Entry<String, ?> entry : document.entrySet()) {
+            copy.put(entry.getKey(), freezeValue(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
+    // New version of a document with the updates applied on top
+    static Map<String, Object> withUpdates(Map<String, Object> document, Map<String, Object> updates) {
+        Map<String, Object> next = new HashMap<>(document);
+        next.putAll(updates);
+        return freeze(next);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object freezeValue(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> copy = new HashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                copy.put(String.valueOf(entry.getKey()), freezeValue(entry.getValue()));
+            }
+            return Collections.unmodifiableMap(copy);
+        }
+        if (value instanceof Collection) {
+            List<Object> copy = new ArrayList<>(((Collection<?>) value).size());
+            for (Object element : (Collection<?>) value) {
+                copy.add(freezeValue(element));
+            }
+            return Collections.unmodifiableList(copy);
+        }
+        if (value != null && value.getClass().isArray()) {
+            List<Object> copy = new ArrayList<>();
+            for (int i = 0; i < java.lang.reflect.Array.getLength(value); i++) {
+                copy.add(freezeValue(java.lang.reflect.Array.get(value, i)));
+            }
+            return Collections.unmodifiableList(copy);
+        }
+        return value;
+    }
+}
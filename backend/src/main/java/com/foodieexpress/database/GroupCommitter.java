@@ -0,0 +1,53 @@
+package com.foodieexpress.database;
+
+import java.util.Collection;
+
+/**
+ * Background flusher for group-commit mode.
+ * Every interval it writes the buffered records of each operation log with one fsync,
+ * so concurrent writers share a single disk flush instead of queueing for their own.
+ */
+class GroupCommitter implements Runnable {
+    private final Collection<OperationLog> logs;
+    private final long intervalMs;
+    private volatile boolean running = true;
+    private Thread thread;
+
+    GroupCommitter(Collection<OperationLog> logs, long intervalMs) {
+        this.logs = logs;
+        this.intervalMs = intervalMs;
+    }
+
+    void start() {
+        thread = new Thread(this, "db-group-commit");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Stop the flusher and write out anything still buffered
+    void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        flushAll();
+    }
+
+    void flushAll() {
+        for (OperationLog log : logs) {
+            log.flushPending();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Thread.sleep(intervalMs);
+            } catch (InterruptedException e) {
+                if (!running) break;
+            }
+            flushAll();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.foodieexpress.database;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Secondary hash index on one field of a collection.
+ * Maps each field value to the IDs of the documents holding it, so equality lookups
+ * no longer scan the whole collection.
+ */
+class HashIndex {
+    // ConcurrentHashMap does not allow null keys; documents without the field index under this marker
+    private static final Object NULL_KEY = new Object();
+
+    private final String field;
+    private final boolean unique;
+    private final Map<Object, Set<String>> entries = new ConcurrentHashMap<>();
+
+    HashIndex(String field, boolean unique) {
+        this.field = field;
+        this.unique = unique;
+    }
+
+    String getField() {
+        return field;
+    }
+
+    boolean isUnique() {
+        return unique;
+    }
+
+    // Reject a value that another document already holds in a unique index
+    void checkUnique(String id, Object value) {
+        if (!unique || value == null) return;
+
+        Set<String> ids = entries.get(value);
+        if (ids != null && !ids.isEmpty() && !(ids.size() == 1 && ids.contains(id))) {
+            throw new IllegalStateException("Duplicate value '" + value + "' for unique index on " + field);
+        }
+    }
+
+    // Mutate buckets inside compute so concurrent writers to the same value never lose an id
+    void add(String id, Map<String, Object> document) {
+        entries.compute(key(document.get(field)), (k, ids) -> {
+            Set<String> bucket = ids != null ? ids : ConcurrentHashMap.newKeySet();
+            bucket.add(id);
+            return bucket;
+        });
+    }
+
+    void remove(String id, Object value) {
+        entries.computeIfPresent(key(value), (k, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    Set<String> lookup(Object value) {
+        Set<String> ids = entries.get(key(value));
+        return ids != null ? ids : Collections.emptySet();
+    }
+
+    private static Object key(Object value) {
+        return value != null ? value : NULL_KEY;
+    }
+}
@@ -0,0 +1,109 @@
+package com.foodieexpress.database;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-collection ID sequences.
+ * IDs are handed out lock-free from an AtomicLong. Only the end of each collection's reserved
+ * block is persisted, before any ID in the block is used, so after a restart a sequence resumes
+ * past everything it may have handed out without scanning the data. Unused IDs in the last
+ * block are skipped.
+ */
+final class IdSequences {
+    private final File file;
+    private final long blockSize;
+    private final Map<String, Sequence> sequences = new ConcurrentHashMap<>();
+
+    private IdSequences(File file, long blockSize) {
+        this.file = file;
+        this.blockSize = blockSize;
+    }
+
+    // Read the reserved ceilings; a missing or damaged file leaves every collection unseeded
+    static IdSequences load(File file, long blockSize) {
+        IdSequences ids = new IdSequences(file, blockSize);
+        if (!file.exists()) return ids;
+
+        try (Reader reader = new InputStreamReader(SnapshotFiles.open(file), StandardCharsets.UTF_8)) {
+            JsonReader json = new JsonReader(reader);
+            Map<String, Object> ceilings = json.readObject();
+            json.expectEnd();
+            for (Map.Entry<String, Object> entry : ceilings.entrySet()) {
+                if (entry.getValue() instanceof Number) {
+                    long ceiling = ((Number) entry.getValue()).longValue();
+                    ids.sequences.put(entry.getKey(), new Sequence(ceiling, ceiling));
+                }
+            }
+        } catch (IOException e) {
+            // The backup may predate IDs already in use, so it is not trusted; collections are rescanned
+            ids.sequences.clear();
+            System.err.println("⚠️ ID sequences " + file.getName() + " are damaged (" + e.getMessage() + "), rescanning collections");
+        }
+        return ids;
+    }
+
+    boolean isSeeded(String collection) {
+        return sequences.containsKey(collection);
+    }
+
+    // Start a sequence after the highest ID found in existing data
+    void seed(String collection, long maxId) throws IOException {
+        sequences.putIfAbsent(collection, new Sequence(maxId + 1, maxId + 1));
+        reserve(collection, maxId + 1);
+    }
+
+    long next(String collection) throws IOException {
+        Sequence sequence = sequence(collection);
+        long id = sequence.next.getAndIncrement();
+        if (id >= sequence.ceiling) {
+            reserve(collection, id);
+        }
+        return id;
+    }
+
+    // Move the sequence past an ID chosen by the caller
+    void observe(String collection, long id) throws IOException {
+        Sequence sequence = sequence(collection);
+        sequence.next.accumulateAndGet(id + 1, Math::max);
+        if (id >= sequence.ceiling) {
+            reserve(collection, id);
+        }
+    }
+
+    private Sequence sequence(String collection) {
+        return sequences.computeIfAbsent(collection, k -> new Sequence(1, 0));
+    }
+
+    // Persist a new ceiling above the ID before it is handed out
+    private synchronized void reserve(String collection, long id) throws IOException {
+        Sequence sequence = sequence(collection);
+        if (id < sequence.ceiling) return;
+
+        long ceiling = (id / blockSize + 1) * blockSize;
+        Map<String, Object> ceilings = new TreeMap<>();
+        for (Map.Entry<String, Sequence> entry : sequences.entrySet()) {
+            ceilings.put(entry.getKey(), entry.getValue().ceiling);
+        }
+        ceilings.put(collection, ceiling);
+
+        StringBuilder json = new StringBuilder();
+        JsonWriter.writeValue(json, ceilings);
+        SnapshotFiles.write(file, json.toString().getBytes(StandardCharsets.UTF_8));
+        sequence.ceiling = ceiling;
+    }
+
+    private static class Sequence {
+        final AtomicLong next;
+        // IDs below this are covered by the persisted reservation
+        volatile long ceiling;
+
+        Sequence(long next, long ceiling) {
+            this.next = new AtomicLong(next);
+            this.ceiling = ceiling;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.foodieexpress.database;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single-pass streaming JSON tokenizer.
+ * Reads characters through its own buffer and builds maps, lists and values directly,
+ * without materializing the input as one string or splitting it into substrings.
+ */
+final class JsonReader {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader in;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final StringBuilder token = new StringBuilder();
+    private int pos = 0;
+    private int limit = 0;
+
+    JsonReader(Reader in) {
+        this.in = in;
+    }
+
+    // Read the next JSON value: object, array, string, number, boolean or null
+    Object readValue() throws IOException {
+        int c = peekNonWhitespace();
+        switch (c) {
+            case '{': return readObject();
+            case '[': return readArray();
+            case '"': return readString();
+            case 't': expectLiteral("true"); return Boolean.TRUE;
+            case 'f': expectLiteral("false"); return Boolean.FALSE;
+            case 'n': expectLiteral("null"); return null;
+            case -1: throw new EOFException("Unexpected end of JSON input");
+            default: return readNumber();
+        }
+    }
+
+    Map<String, Object> readObject() throws IOException {
+        Map<String, Object> object = new HashMap<>();
+        expect('{');
+        if (peekNonWhitespace() == '}') {
+            pos++;
+            return object;
+        }
+        do {
+            String key = readKey();
+            object.put(key, readValue());
+        } while (nextSeparator('}'));
+        return object;
+    }
+
+    List<Object> readArray() throws IOException {
+        List<Object> array = new ArrayList<>();
+        expect('[');
+        if (peekNonWhitespace() == ']') {
+            pos++;
+            return array;
+        }
+        do {
+            array.add(readValue());
+        } while (nextSeparator(']'));
+        return array;
+    }
+
+    // Stream the members of a top-level object, handing each one off as soon as it is parsed
+    void readMembers(MemberHandler handler) throws IOException {
+        expect('{');
+        if (peekNonWhitespace() == '}') {
+            pos++;
+            return;
+        }
+        do {
+            String key = readKey();
+            handler.member(key, this);
+        } while (nextSeparator('}'));
+    }
+
+    // Fail unless only whitespace remains
+    void expectEnd() throws IOException {
+        int c = peekNonWhitespace();
+        if (c != -1) {
+            throw new IOException("Unexpected trailing content in JSON input: '" + (char) c + "'");
+        }
+    }
+
+    interface MemberHandler {
+        void member(String key, JsonReader reader) throws IOException;
+    }
+
+    private String readKey() throws IOException {
+        if (peekNonWhitespace() != '"') {
+            throw syntaxError("Expected member name");
+        }
+        String key = readString();
+        expect(':');
+        return key;
+    }
+
+    // Consume ',' (more members follow) or the closing character (done)
+    private boolean nextSeparator(char close) throws IOException {
+        int c = peekNonWhitespace();
+        pos++;
+        if (c == ',') return true;
+        if (c == close) return false;
+        throw syntaxError("Expected ',' or '" + close + "'");
+    }
+
+    private String readString() throws IOException {
+        expect('"');
+        token.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == -1) throw new EOFException("Unterminated string");
+            if (c == '"') return token.toString();
+            if (c != '\\') {
+                token.append((char) c);
+                continue;
+            }
+
+            int escaped = read();
+            switch (escaped) {
+                case '"': token.append('"'); break;
+                case '\\': token.append('\\'); break;
+                case '/': token.append('/'); break;
+                case 'b': token.append('\b'); break;
+                case 'f': token.append('\f'); break;
+                case 'n': token.append('\n'); break;
+                case 'r': token.append('\r'); break;
+                case 't': token.append('\t'); break;
+                case 'u':
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(read(), 16);
+                        if (digit < 0) throw syntaxError("Invalid unicode escape");
+                        code = (code << 4) | digit;
+                    }
+                    token.append((char) code);
+                    break;
+                default:
+                    throw syntaxError("Invalid escape sequence");
+            }
+        }
+    }
+
+    // Integers become Integer when they fit, Long otherwise; anything with a fraction or exponent is a Double
+    private Object readNumber() throws IOException {
+        token.setLength(0);
+        boolean decimal = false;
+        while (true) {
+            int c = peek();
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+') {
+                token.append((char) c);
+            } else if (c == '.' || c == 'e' || c == 'E') {
+                token.append((char) c);
+                decimal = true;
+            } else {
+                break;
+            }
+            pos++;
+        }
+        if (token.length() == 0) {
+            throw syntaxError("Unexpected character");
+        }
+
+        String number = token.toString();
+        try {
+            if (decimal) {
+                return Double.parseDouble(number);
+            }
+            long value = Long.parseLong(number);
+            if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                return (int) value;
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw syntaxError("Invalid number '" + number + "'");
+        }
+    }
+
+    private void expectLiteral(String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (read() != literal.charAt(i)) {
+                throw syntaxError("Expected '" + literal + "'");
+            }
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        if (peekNonWhitespace() != expected) {
+            throw syntaxError("Expected '" + expected + "'");
+        }
+        pos++;
+    }
+
+    private int peekNonWhitespace() throws IOException {
+        while (true) {
+            int c = peek();
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                pos++;
+            } else {
+                return c;
+            }
+        }
+    }
+
+    private int peek() throws IOException {
+        if (pos == limit && !fill()) return -1;
+        return buffer[pos];
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) return -1;
+        return buffer[pos++];
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buffer, 0, buffer.length);
+        if (n <= 0) return false;
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Malformed JSON: " + message);
+    }
+}
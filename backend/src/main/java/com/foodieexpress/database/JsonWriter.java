@@ -0,0 +1,95 @@
+package com.foodieexpress.database;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * JSON encoder for stored documents.
+ * Writes into a single builder and encodes nested maps, lists and arrays as real JSON
+ * structures, so they read back as maps and lists rather than strings.
+ */
+final class JsonWriter {
+
+    private JsonWriter() {}
+
+    static String collectionToJson(Map<String, Map<String, Object>> collection) {
+        StringBuilder json = new StringBuilder(collection.size() * 256);
+        json.append('{');
+        boolean first = true;
+        for (Map.Entry<String, Map<String, Object>> entry : collection.entrySet()) {
+            if (!first) json.append(',');
+            writeString(json, entry.getKey());
+            json.append(':');
+            writeValue(json, entry.getValue());
+            first = false;
+        }
+        json.append('}');
+        return json.toString();
+    }
+
+    static void writeValue(StringBuilder json, Object value) {
+        if (value == null) {
+            json.append("null");
+        } else if (value instanceof String) {
+            writeString(json, (String) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            // NaN and Infinity are not valid JSON
+            json.append(Double.isFinite(number) ? value.toString() : "null");
+        } else if (value instanceof Number || value instanceof Boolean) {
+            json.append(value);
+        } else if (value instanceof Map) {
+            json.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) json.append(',');
+                writeString(json, String.valueOf(entry.getKey()));
+                json.append(':');
+                writeValue(json, entry.getValue());
+                first = false;
+            }
+            json.append('}');
+        } else if (value instanceof Collection) {
+            json.append('[');
+            boolean first = true;
+            for (Object element : (Collection<?>) value) {
+                if (!first) json.append(',');
+                writeValue(json, element);
+                first = false;
+            }
+            json.append(']');
+        } else if (value.getClass().isArray()) {
+            json.append('[');
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                if (i > 0) json.append(',');
+                writeValue(json, Array.get(value, i));
+            }
+            json.append(']');
+        } else {
+            writeString(json, value.toString());
+        }
+    }
+
+    static void writeString(StringBuilder json, String str) {
+        json.append('"');
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
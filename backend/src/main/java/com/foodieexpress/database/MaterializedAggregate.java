@@ -0,0 +1,79 @@
+package com.foodieexpress.database;
+
+import java.util.*;
+
+/**
+ * Results of an {@link Aggregation} kept up to date as documents change, created with
+ * DatabaseManager.materialize(). Every insert, update and delete moves the document's
+ * contribution between groups, so reading the totals never touches the documents.
+ */
+public final class MaterializedAggregate {
+    private final Aggregation aggregation;
+    private final Map<Object, Aggregation.Group> groups = new HashMap<>();
+    private final Aggregation.Group total;
+
+    MaterializedAggregate(Aggregation aggregation) {
+        this.aggregation = aggregation;
+        this.total = aggregation.newGroup();
+    }
+
+    String collection() {
+        return aggregation.collection();
+    }
+
+    // Swap a document's old version (null if new) for its new one (null if deleted)
+    synchronized void replace(Map<String, Object> previous, Map<String, Object> next) {
+        if (previous != null) {
+            apply(previous, -1);
+        }
+        if (next != null) {
+            apply(next, 1);
+        }
+    }
+
+    private void apply(Map<String, Object> document, int sign) {
+        if (!aggregation.matches(document)) return;
+
+        Object key = aggregation.keyOf(document);
+        Aggregation.Group group = groups.computeIfAbsent(key, k -> aggregation.newGroup());
+        group.add(aggregation.sumFields(), document, sign);
+        total.add(aggregation.sumFields(), document, sign);
+        if (group.count() == 0) {
+            groups.remove(key);
+        }
+    }
+
+    // Copy of every non-empty group
+    public Map<Object, Aggregation.Group> groups() {
+        DatabaseManager.awaitLoaded(collection());
+        synchronized (this) {
+            Map<Object, Aggregation.Group> copy = new HashMap<>();
+            groups.forEach((key, group) -> copy.put(key, group.copy()));
+            return copy;
+        }
+    }
+
+    // Copy of one group, empty if no document falls into it
+    public Aggregation.Group group(Object key) {
+        DatabaseManager.awaitLoaded(collection());
+        synchronized (this) {
+            Aggregation.Group group = groups.get(key);
+            return group != null ? group.copy() : aggregation.newGroup();
+        }
+    }
+
+    // All groups combined
+    public Aggregation.Group total() {
+        DatabaseManager.awaitLoaded(collection());
+        synchronized (this) {
+            return total.copy();
+        }
+    }
+
+    public int groupCount() {
+        DatabaseManager.awaitLoaded(collection());
+        synchronized (this) {
+            return groups.size();
+        }
+    }
+}
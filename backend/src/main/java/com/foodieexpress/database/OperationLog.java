@@ -0,0 +1,202 @@
+package com.foodieexpress.database;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only operation log for a single collection.
+ * Each mutation is written as one JSON line, so a write costs one small append
+ * instead of a rewrite of the whole collection file.
+ *
+ * In group-commit mode appends are buffered in memory and written with a single
+ * fsync by {@link GroupCommitter}; callers can wait for their record to become durable.
+ */
+class OperationLog implements Closeable {
+    private final File file;
+    private final boolean groupCommit;
+    private final Object ioLock = new Object();
+    private FileOutputStream out;
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long appendedSeq = 0;
+    private long durableSeq = 0;
+    private long recordCount = 0;
+    // Highest sequence number in a batch whose flush failed; records up to it are retried
+    private long failedSeq = 0;
+    private IOException flushError;
+
+    OperationLog(File file, boolean groupCommit) {
+        this.file = file;
+        this.groupCommit = groupCommit;
+    }
+
+    // Append a single record (one line) and return its sequence number in this log
+    synchronized long append(String record) throws IOException {
+        byte[] bytes = (record + "\n").getBytes(StandardCharsets.UTF_8);
+        long seq = ++appendedSeq;
+        recordCount++;
+
+        if (groupCommit) {
+            pending.write(bytes, 0, bytes.length);
+        } else {
+            // A failed write is cut off again, so the caller can treat the record as never logged
+            FileOutputStream stream = stream();
+            long position = stream.getChannel().size();
+            try {
+                stream.write(bytes);
+                stream.flush();
+            } catch (IOException e) {
+                appendedSeq--;
+                recordCount--;
+                discardPartialWrite(position);
+                throw e;
+            }
+            durableSeq = seq;
+        }
+        return seq;
+    }
+
+    // Write all buffered records with one fsync (group-commit mode)
+    void flushPending() {
+        // The I/O lock keeps batches in order without blocking appenders
+        synchronized (ioLock) {
+            byte[] batch;
+            long batchSeq;
+            synchronized (this) {
+                if (pending.size() == 0) return;
+                batch = pending.toByteArray();
+                batchSeq = appendedSeq;
+                pending = new ByteArrayOutputStream();
+            }
+
+            long position = -1;
+            try {
+                FileOutputStream stream = stream();
+                position = stream.getChannel().size();
+                stream.write(batch);
+                stream.getChannel().force(false);
+                markDurable(batchSeq);
+            } catch (IOException e) {
+                System.err.println("❌ Group commit failed for " + file.getName() + ", will retry: " + e.getMessage());
+                discardPartialWrite(position);
+                markFailed(batch, batchSeq, e);
+            }
+        }
+    }
+
+    // Cut off whatever part of a failed batch reached the file, so its retry does not duplicate records
+    private void discardPartialWrite(long position) {
+        try {
+            synchronized (this) {
+                if (position >= 0 && out != null) {
+                    out.getChannel().truncate(position);
+                } else {
+                    closeStream();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("⚠️ Could not roll back partial write to " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    // Block until the record with the given sequence number has been flushed
+    synchronized void awaitDurable(long seq) throws IOException {
+        while (durableSeq < seq) {
+            // The record's batch failed; it stays buffered for the next flush, but is not durable now
+            if (seq <= failedSeq) {
+                throw flushError;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for group commit");
+            }
+        }
+    }
+
+    private synchronized void markDurable(long seq) {
+        durableSeq = Math.max(durableSeq, seq);
+        notifyAll();
+    }
+
+    // Put the batch back ahead of records appended since, and fail everyone waiting on it
+    private synchronized void markFailed(byte[] batch, long batchSeq, IOException error) {
+        ByteArrayOutputStream retry = new ByteArrayOutputStream(batch.length + pending.size());
+        retry.write(batch, 0, batch.length);
+        retry.write(pending.toByteArray(), 0, pending.size());
+        pending = retry;
+        failedSeq = Math.max(failedSeq, batchSeq);
+        flushError = error;
+        notifyAll();
+    }
+
+    private synchronized FileOutputStream stream() throws IOException {
+        if (out == null) {
+            out = new FileOutputStream(file, true);
+        }
+        return out;
+    }
+
+    // Read all records currently in the log, skipping a torn last line
+    synchronized List<String> readRecords() throws IOException {
+        List<String> records = readRecords(file);
+        recordCount = records.size();
+        return records;
+    }
+
+    static List<String> readRecords(File file) throws IOException {
+        List<String> records = new ArrayList<>();
+        if (!file.exists()) return records;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.startsWith("{") && line.endsWith("}")) {
+                    records.add(line);
+                }
+            }
+        }
+        return records;
+    }
+
+    // Move the current log file aside and start a fresh one; buffered records follow into the new file
+    void rotateTo(File target) throws IOException {
+        synchronized (ioLock) {
+            synchronized (this) {
+                closeStream();
+                if (file.exists()) {
+                    Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                recordCount = 0;
+            }
+        }
+    }
+
+    // Number of records written since the log was last rotated
+    synchronized long recordCount() {
+        return recordCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushPending();
+        synchronized (ioLock) {
+            synchronized (this) {
+                closeStream();
+            }
+        }
+    }
+
+    private void closeStream() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.foodieexpress.database;
+
+import java.util.*;
+
+/**
+ * Query on one collection, run with DatabaseManager.find():
+ * <pre>
+ * Query.from("orders").where(Condition.eq("status", "PENDING"))
+ *         .orderBy("createdAt", true).limit(20).select("orderId", "totalAmount")
+ * </pre>
+ * Conditions on indexed fields read only the matching documents, and a sort on a field with a
+ * sorted index stops walking it once offset + limit documents have matched.
+ */
+public final class Query {
+    private final String collection;
+    private Condition condition;
+    private List<String> fields;
+    private String sortField;
+    private boolean descending;
+    private int offset = 0;
+    private int limit = 0;
+
+    private Query(String collection) {
+        this.collection = collection;
+    }
+
+    public static Query from(String collection) {
+        return new Query(collection);
+    }
+
+    public Query where(Condition condition) {
+        this.condition = condition;
+        return this;
+    }
+
+    // Return only these fields (plus "id") instead of whole documents
+    public Query select(String... fields) {
+        this.fields = Arrays.asList(fields);
+        return this;
+    }
+
+    // Documents without the field sort last in either direction
+    public Query orderBy(String field, boolean descending) {
+        this.sortField = field;
+        this.descending = descending;
+        return this;
+    }
+
+    public Query skip(int offset) {
+        this.offset = Math.max(0, offset);
+        return this;
+    }
+
+    // limit <= 0 returns every match
+    public Query limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    List<Map<String, Object>> run() {
+        Set<String> candidates = condition != null ? condition.candidates(collection) : null;
+
+        List<Map<String, Object>> matches = null;
+        if (candidates == null && sortField != null && limit > 0) {
+            matches = walkSortedIndex();
+        }
+        if (matches == null) {
+            matches = candidates != null ? fetch(candidates) : scan();
+            if (sortField != null) {
+                matches.sort(order());
+            }
+        }
+
+        int from = Math.min(offset, matches.size());
+        int to = limit > 0 ? Math.min(matches.size(), from + limit) : matches.size();
+        List<Map<String, Object>> results = new ArrayList<>(to - from);
+        for (Map<String, Object> document : matches.subList(from, to)) {
+            results.add(fields != null ? project(document) : document);
+        }
+        return results;
+    }
+
+    // Matches in sort order straight from the index, or null if it cannot fill the page
+    private List<Map<String, Object>> walkSortedIndex() {
+        SortedIndex index = DatabaseManager.sortedIndex(collection, sortField);
+        if (index == null) return null;
+
+        // Documents without the field are not in the index; they only matter if the page is not filled
+        List<Map<String, Object>> matches = new ArrayList<>();
+        Iterator<String> ids = index.ids(null, null, descending);
+        while (ids.hasNext()) {
+            String id = ids.next();
+            Map<String, Object> document = DatabaseManager.findById(collection, id);
+            if (document != null && document.get(sortField) != null && matches(document)) {
+                matches.add(document);
+                if (matches.size() >= offset + limit) return matches;
+            }
+        }
+        return null;
+    }
+
+    private List<Map<String, Object>> fetch(Set<String> ids) {
+        List<Map<String, Object>> matches = new ArrayList<>();
+        for (String id : ids) {
+            Map<String, Object> document = DatabaseManager.findById(collection, id);
+            if (document != null && matches(document)) {
+                matches.add(document);
+            }
+        }
+        return matches;
+    }
+
+    private List<Map<String, Object>> scan() {
+        // Without a sort the first offset + limit matches are enough
+        int needed = sortField == null && limit > 0 ? offset + limit : Integer.MAX_VALUE;
+        List<Map<String, Object>> matches = new ArrayList<>();
+        DatabaseManager.forEachDocument(collection, (id, document) -> {
+            if (matches.size() < needed && matches(document)) {
+                matches.add(document);
+            }
+        });
+        return matches;
+    }
+
+    private boolean matches(Map<String, Object> document) {
+        return condition == null || condition.matches(document);
+    }
+
+    private Comparator<Map<String, Object>> order() {
+        Comparator<Object> values = descending ? SortedIndex.VALUE_ORDER.reversed() : SortedIndex.VALUE_ORDER;
+        return Comparator.comparing(document -> document.get(sortField), Comparator.nullsLast(values));
+    }
+
+    private Map<String, Object> project(Map<String, Object> document) {
+        Map<String, Object> projected = new LinkedHashMap<>();
+        projected.put("id", document.get("id"));
+        for (String field : fields) {
+            if (document.containsKey(field)) {
+                projected.put(field, document.get(field));
+            }
+        }
+        return projected;
+    }
+}
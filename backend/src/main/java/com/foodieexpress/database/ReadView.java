@@ -0,0 +1,137 @@
+package com.foodieexpress.database;
+
+import java.util.*;
+
+/**
+ * Consistent point-in-time view across all collections, opened with DatabaseManager.beginSnapshot().
+ * Reads see exactly the writes committed before the view was opened, without blocking writers.
+ * Close it promptly: replaced versions are kept in memory for as long as it is open.
+ */
+public final class ReadView implements AutoCloseable {
+    private final VersionHistory history;
+    private final long version;
+    private boolean closed = false;
+
+    ReadView(VersionHistory history, long version) {
+        this.history = history;
+        this.version = version;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Map<String, Object> findById(String collection, String id) {
+        // Read the current version first: a writer records the old version before it swaps in the new one
+        Map<String, Object> current = DatabaseManager.storedDocuments(collection).get(id);
+        VersionHistory.Change change = history.firstChangeAfter(collection, id, version);
+        if (change != null) {
+            return change.previous;
+        }
+        return current != null ? current : DatabaseManager.archiveOf(collection).get(id);
+    }
+
+    public List<Map<String, Object>> findAll(String collection) {
+        List<Map<String, Object>> results = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (String id : candidateIds(collection)) {
+            seen.add(id);
+            Map<String, Object> doc = findById(collection, id);
+            if (doc != null) {
+                results.add(doc);
+            }
+        }
+        DatabaseManager.archiveOf(collection).forEach((id, doc) -> {
+            if (!seen.contains(id) && history.firstChangeAfter(collection, id, version) == null) {
+                results.add(doc);
+            }
+        });
+        return results;
+    }
+
+    public List<Map<String, Object>> findByField(String collection, String field, Object value) {
+        HashIndex index = DatabaseManager.hashIndex(collection, field);
+        if (index == null) {
+            List<Map<String, Object>> results = new ArrayList<>();
+            for (Map<String, Object> doc : findAll(collection)) {
+                if (Objects.equals(doc.get(field), value)) {
+                    results.add(doc);
+                }
+            }
+            return results;
+        }
+
+        // The index holds current values; documents changed since the view opened are checked individually
+        Set<String> ids = new LinkedHashSet<>(index.lookup(value));
+        ids.addAll(history.changedIds(collection));
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (String id : ids) {
+            Map<String, Object> doc = findById(collection, id);
+            if (doc != null && Objects.equals(doc.get(field), value)) {
+                results.add(doc);
+            }
+        }
+        return results;
+    }
+
+    // Same contract as DatabaseManager.findRange, as of this view
+    public List<Map<String, Object>> findRange(String collection, String field, Object from, Object to,
+                                               int limit, boolean descending) {
+        List<Map<String, Object>> candidates;
+        SortedIndex index = DatabaseManager.sortedIndex(collection, field);
+        if (index != null) {
+            // Each changed document can displace at most one unchanged one from the first `limit` entries
+            Set<String> changed = history.changedIds(collection);
+            Set<String> ids = new LinkedHashSet<>(index.range(from, to, limit > 0 ? limit + changed.size() : 0, descending));
+            ids.addAll(changed);
+            candidates = new ArrayList<>();
+            for (String id : ids) {
+                Map<String, Object> doc = findById(collection, id);
+                if (doc != null) {
+                    candidates.add(doc);
+                }
+            }
+        } else {
+            candidates = findAll(collection);
+        }
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (Map<String, Object> doc : candidates) {
+            Object value = doc.get(field);
+            if (value == null) continue;
+            if (from != null && SortedIndex.compareValues(value, from) < 0) continue;
+            if (to != null && SortedIndex.compareValues(value, to) > 0) continue;
+            results.add(doc);
+        }
+        Comparator<Map<String, Object>> order = (a, b) -> SortedIndex.compareValues(a.get(field), b.get(field));
+        results.sort(descending ? order.reversed() : order);
+        return limit > 0 && results.size() > limit ? new ArrayList<>(results.subList(0, limit)) : results;
+    }
+
+    public long count(String collection) {
+        long count = 0;
+        Set<String> seen = new HashSet<>();
+        for (String id : candidateIds(collection)) {
+            seen.add(id);
+            if (findById(collection, id) != null) count++;
+        }
+        for (String id : DatabaseManager.archiveOf(collection).ids()) {
+            if (!seen.contains(id) && history.firstChangeAfter(collection, id, version) == null) count++;
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        history.close(version);
+    }
+
+    // In-memory documents plus everything written since the view opened, including deletions
+    private Set<String> candidateIds(String collection) {
+        Set<String> ids = new LinkedHashSet<>(DatabaseManager.storedDocuments(collection).keySet());
+        ids.addAll(history.changedIds(collection));
+        return ids;
+    }
+}
@@ -0,0 +1,229 @@
+package com.foodieexpress.database;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-safe snapshot files.
+ * A snapshot is written to a temporary file with a checksum footer, fsynced and atomically
+ * renamed over the live file; the previous snapshot is kept as a backup for recovery.
+ */
+final class SnapshotFiles {
+    static final String BACKUP_SUFFIX = ".bak";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String FOOTER_PREFIX = "\n#crc32=";
+    private static final int MAX_FOOTER_LENGTH = 64;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private SnapshotFiles() {}
+
+    // Atomically replace the target with the payload, keeping the old file as <target>.bak
+    static void write(File target, byte[] payload) throws IOException {
+        write(target, payload, 0);
+    }
+
+    // Same, also recording in the footer the last transaction the payload includes
+    static void write(File target, byte[] payload, long transaction) throws IOException {
+        Path path = target.toPath();
+        Path temp = path.resolveSibling(target.getName() + TEMP_SUFFIX);
+        Path backup = backupOf(target).toPath();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        String footer = FOOTER_PREFIX + String.format("%08x", crc.getValue()) +  " length=" + payload.length
+                + (transaction > 0 ? " txn=" + transaction : "") + "\n";
+
+        try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+            out.write(payload);
+            out.write(footer.getBytes(StandardCharsets.US_ASCII));
+            out.getChannel().force(true);
+        }
+
+        if (Files.exists(path)) {
+            Files.deleteIfExists(backup);
+            try {
+                Files.createLink(backup, path);
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(path, backup, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(path.getParent());
+    }
+
+    /**
+     * Open a snapshot for streaming. The stream ends at the footer and verifies the checksum
+     * when fully consumed, so a damaged file fails at its last read.
+     * Files written before checksums existed are returned unverified.
+     */
+    static InputStream open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long[] footer = readFooter(channel, file.getName());
+            InputStream in = new BufferedInputStream(Channels.newInputStream(channel.position(0)), READ_BUFFER_SIZE);
+            if (footer == null) {
+                return in;
+            }
+            return new VerifiedInputStream(in, footer[0], footer[1], file.getName());
+
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("Damaged checksum footer in " + file.getName());
+        }
+    }
+
+    /**
+     * Map a snapshot's payload read-only, verifying its checksum over the mapped pages.
+     * The mapping stays valid after the file is replaced or deleted.
+     */
+    static MappedByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long[] footer = readFooter(channel, file.getName());
+            long length = footer != null ? footer[0] : channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+
+            if (footer != null) {
+                CRC32 crc = new CRC32();
+                crc.update(buffer.duplicate());
+                if (crc.getValue() != footer[1]) {
+                    throw new IOException("Checksum mismatch in " + file.getName());
+                }
+            }
+            return buffer;
+
+        } catch (RuntimeException e) {
+            throw new IOException("Damaged checksum footer in " + file.getName());
+        }
+    }
+
+    // Last transaction recorded in the footer, or 0 if none was
+    static long lastTransaction(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long[] footer = readFooter(channel, file.getName());
+            return footer != null ? footer[2] : 0;
+        } catch (RuntimeException e) {
+            throw new IOException("Damaged checksum footer in " + file.getName());
+        }
+    }
+
+    // Returns {payload length, crc32, last transaction}, or null for files written before checksums existed
+    private static long[] readFooter(FileChannel channel, String name) throws IOException {
+        long size = channel.size();
+        int tailLength = (int) Math.min(size, MAX_FOOTER_LENGTH);
+        ByteBuffer tail = ByteBuffer.allocate(tailLength);
+        while (tail.hasRemaining() && channel.read(tail, size - tailLength + tail.position()) > 0) {
+            // Keep reading until the tail is complete
+        }
+
+        int footerStart = findFooter(tail.array());
+        if (footerStart < 0) {
+            return null;
+        }
+
+        long payloadLength = size - tailLength + footerStart;
+        String footer = new String(tail.array(), footerStart, tailLength - footerStart, StandardCharsets.US_ASCII).trim();
+        String[] parts = footer.substring(FOOTER_PREFIX.trim().length()).split(" ");
+        if (parts.length < 2 || !parts[1].equals("length=" + payloadLength)) {
+            throw new IOException("Damaged checksum footer in " + name);
+        }
+        long transaction = parts.length > 2 && parts[2].startsWith("txn=") ? Long.parseLong(parts[2].substring(4)) : 0;
+        return new long[] {payloadLength, Long.parseLong(parts[0], 16), transaction};
+    }
+
+    static File backupOf(File file) {
+        return new File(file.getParentFile(), file.getName() + BACKUP_SUFFIX);
+    }
+
+    private static int findFooter(byte[] content) {
+        byte[] prefix = FOOTER_PREFIX.getBytes(StandardCharsets.US_ASCII);
+        for (int i = content.length - prefix.length; i >= 0; i--) {
+            boolean match = true;
+            for (int j = 0; j < prefix.length && match; j++) {
+                match = content[i + j] == prefix[j];
+            }
+            if (match) return i;
+        }
+        return -1;
+    }
+
+    // Make the rename itself durable; not supported on every platform
+    private static void syncDirectory(Path dir) {
+        if (dir == null) return;
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException | UnsupportedOperationException e) {
+            // Best effort only
+        }
+    }
+
+    // Limits reads to the payload and checks its CRC32 once the last byte has been read
+    private static class VerifiedInputStream extends FilterInputStream {
+        private final CRC32 crc = new CRC32();
+        private final long expectedCrc;
+        private final String name;
+        private long remaining;
+
+        VerifiedInputStream(InputStream in, long length, long expectedCrc, String name) {
+            super(in);
+            this.remaining = length;
+            this.expectedCrc = expectedCrc;
+            this.name = name;
+            if (length == 0) {
+                remaining = -1;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                verify();
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n == -1) {
+                throw new EOFException("Snapshot " + name + " is truncated");
+            }
+            crc.update(b, off, n);
+            remaining -= n;
+            if (remaining == 0) {
+                verify();
+            }
+            return n;
+        }
+
+        private void verify() throws IOException {
+            if (remaining == 0 && crc.getValue() != expectedCrc) {
+                throw new IOException("Checksum mismatch in " + name);
+            }
+            remaining = -1;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            throw new IOException("Skipping is not supported while verifying " + name);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), Math.max(remaining, 0));
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
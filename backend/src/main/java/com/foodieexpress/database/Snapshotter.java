@@ -0,0 +1,71 @@
+package com.foodieexpress.database;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Background snapshotter for the file database.
+ * Periodically writes a point-in-time image of each collection and truncates the log
+ * behind it, keeping startup replay time and disk usage bounded.
+ */
+class Snapshotter implements Runnable {
+    private static final long CHECK_INTERVAL_MS = 1000;
+
+    private final Map<String, OperationLog> logs;
+    private final Consumer<String> compactor;
+    private final long intervalMs;
+    private final long maxLogRecords;
+    private final Map<String, Long> lastSnapshot = new ConcurrentHashMap<>();
+    private volatile boolean running = true;
+    private Thread thread;
+
+    Snapshotter(Map<String, OperationLog> logs, Consumer<String> compactor, long intervalMs, long maxLogRecords) {
+        this.logs = logs;
+        this.compactor = compactor;
+        this.intervalMs = intervalMs;
+        this.maxLogRecords = maxLogRecords;
+    }
+
+    void start() {
+        thread = new Thread(this, "db-snapshotter");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Thread.sleep(CHECK_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, OperationLog> entry : logs.entrySet()) {
+                String collection = entry.getKey();
+                long records = entry.getValue().recordCount();
+                if (records == 0) continue;
+
+                long last = lastSnapshot.computeIfAbsent(collection, k -> now);
+                if (records >= maxLogRecords || now - last >= intervalMs) {
+                    try {
+                        compactor.accept(collection);
+                    } catch (RuntimeException e) {
+                        System.err.println("❌ Snapshot failed for " + collection + ": " + e.getMessage());
+                    }
+                    lastSnapshot.put(collection, System.currentTimeMillis());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.foodieexpress.database;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Ordered secondary index on one field of a collection, backed by a skip list.
+ * Range and "latest N" queries walk only the matching slice of keys.
+ * Numbers compare by value regardless of their boxed type; documents without the field are not indexed.
+ */
+class SortedIndex {
+    static final Comparator<Object> VALUE_ORDER = SortedIndex::compareValues;
+
+    private final String field;
+    private final ConcurrentSkipListMap<Object, Set<String>> entries = new ConcurrentSkipListMap<>(VALUE_ORDER);
+
+    SortedIndex(String field) {
+        this.field = field;
+    }
+
+    String getField() {
+        return field;
+    }
+
+    // Writers are serialized: skip-list compute is not atomic, and a bucket emptied by one
+    // writer must not swallow an id another writer is adding; range reads take no lock
+    synchronized void add(String id, Map<String, Object> document) {
+        Object value = document.get(field);
+        if (value == null) return;
+        entries.computeIfAbsent(value, k -> ConcurrentHashMap.newKeySet()).add(id);
+    }
+
+    synchronized void remove(String id, Object value) {
+        if (value == null) return;
+        entries.computeIfPresent(value, (k, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    /**
+     * IDs whose value lies in [from, to], in index order.
+     * A null bound leaves that side open; limit <= 0 means no limit.
+     */
+    List<String> range(Object from, Object to, int limit, boolean descending) {
+        List<String> ids = new ArrayList<>();
+        Iterator<String> iterator = ids(from, to, descending);
+        while (iterator.hasNext() && (limit <= 0 || ids.size() < limit)) {
+            ids.add(iterator.next());
+        }
+        return ids;
+    }
+
+    // The same IDs produced one at a time, so a caller that stops early never visits the rest
+    Iterator<String> ids(Object from, Object to, boolean descending) {
+        NavigableMap<Object, Set<String>> slice = entries;
+        if (from != null && to != null) {
+            slice = entries.subMap(from, true, to, true);
+        } else if (from != null) {
+            slice = entries.tailMap(from, true);
+        } else if (to != null) {
+            slice = entries.headMap(to, true);
+        }
+        if (descending) {
+            slice = slice.descendingMap();
+        }
+
+        Iterator<Set<String>> buckets = slice.values().iterator();
+        return new Iterator<String>() {
+            private Iterator<String> bucket = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!bucket.hasNext() && buckets.hasNext()) {
+                    bucket = buckets.next().iterator();
+                }
+                return bucket.hasNext();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return bucket.next();
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    static int compareValues(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        if (a instanceof Comparable && a.getClass() == b.getClass()) {
+            return ((Comparable<Object>) a).compareTo(b);
+        }
+        // Mixed types: order by type name so the index stays consistent
+        int byType = typeName(a).compareTo(typeName(b));
+        return byType != 0 ? byType : a.toString().compareTo(b.toString());
+    }
+
+    private static String typeName(Object value) {
+        return value instanceof Number ? "Number" : value.getClass().getSimpleName();
+    }
+}
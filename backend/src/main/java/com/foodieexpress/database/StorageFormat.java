@@ -0,0 +1,19 @@
+package com.foodieexpress.database;
+
+/**
+ * On-disk format of a collection snapshot.
+ */
+public enum StorageFormat {
+    JSON(".json"),
+    BINARY(".bin");
+
+    private final String extension;
+
+    StorageFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+}
@@ -0,0 +1,71 @@
+package com.foodieexpress.database;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Multi-document transaction, started with DatabaseManager.beginTransaction().
+ * Writes are buffered until commit(), which applies all of them or none: every collection
+ * involved gets a single log record, and read views see either none of the changes or all of them.
+ */
+public final class Transaction {
+    enum Type { INSERT, UPDATE, DELETE }
+
+    // One buffered write; for updates the document holds only the changed fields
+    static final class Operation {
+        final Type type;
+        final String collection;
+        final String id;
+        final Map<String, Object> document;
+
+        Operation(Type type, String collection, String id, Map<String, Object> document) {
+            this.type = type;
+            this.collection = collection;
+            this.id = id;
+            this.document = document;
+        }
+    }
+
+    private final List<Operation> operations = new ArrayList<>();
+    private boolean failed = false;
+    private boolean finished = false;
+
+    Transaction() {}
+
+    // Stage an insert and return the document's ID, assigned now so later writes can refer to it
+    public String insert(String collection, Map<String, Object> document) {
+        checkOpen();
+        try {
+            String id = DatabaseManager.assignId(collection, document);
+            operations.add(new Operation(Type.INSERT, collection, id, document));
+            return id;
+        } catch (IOException e) {
+            System.err.println("❌ Failed to assign ID in transaction: " + e.getMessage());
+            failed = true;
+            return null;
+        }
+    }
+
+    public void update(String collection, String id, Map<String, Object> updates) {
+        checkOpen();
+        operations.add(new Operation(Type.UPDATE, collection, id, new HashMap<>(updates)));
+    }
+
+    public void delete(String collection, String id) {
+        checkOpen();
+        operations.add(new Operation(Type.DELETE, collection, id, null));
+    }
+
+    // Apply every staged write; returns false and changes nothing if any of them cannot be applied
+    public boolean commit() {
+        checkOpen();
+        finished = true;
+        return !failed && DatabaseManager.commitTransaction(operations);
+    }
+
+    private void checkOpen() {
+        if (finished) {
+            throw new IllegalStateException("Transaction has already been committed");
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.foodieexpress.database;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Superseded document versions kept for open read views (MVCC).
+ * Every write takes the next commit version. While a view is open, the version a write
+ * replaces is remembered, so the view can still read what was current when it opened.
+ * History older than the oldest open view is dropped; none is kept while no view is open.
+ */
+final class VersionHistory {
+    private final AtomicLong commitVersion = new AtomicLong();
+    // Writers share the gate; opening a view takes it exclusively for an instant so no write is half done
+    private final ReentrantReadWriteLock gate = new ReentrantReadWriteLock();
+    private final TreeMap<Long, Integer> openViews = new TreeMap<>();
+    private volatile boolean retaining = false;
+    private final Map<String, Map<String, Change>> changes = new ConcurrentHashMap<>();
+
+    // One superseded version; chains run newest first
+    static final class Change {
+        final long version;
+        final Map<String, Object> previous;
+        final Change older;
+
+        Change(long version, Map<String, Object> previous, Change older) {
+            this.version = version;
+            this.previous = previous;
+            this.older = older;
+        }
+    }
+
+    void beginWrite() {
+        gate.readLock().lock();
+    }
+
+    void endWrite() {
+        gate.readLock().unlock();
+    }
+
+    // Remember the version a write is about to replace (null if the document is new); called between beginWrite and endWrite
+    void record(String collection, String id, Map<String, Object> previous) {
+        long version = commitVersion.incrementAndGet();
+        if (!retaining) return;
+        changes.computeIfAbsent(collection, k -> new ConcurrentHashMap<>())
+                .compute(id, (k, newest) -> new Change(version, previous, newest));
+    }
+
+    // Register a view and return its version: it sees every write numbered at or below it
+    long open() {
+        gate.writeLock().lock();
+        try {
+            long version = commitVersion.get();
+            synchronized (this) {
+                openViews.merge(version, 1, Integer::sum);
+                retaining = true;
+            }
+            return version;
+        } finally {
+            gate.writeLock().unlock();
+        }
+    }
+
+    synchronized void close(long version) {
+        openViews.computeIfPresent(version, (k, n) -> n > 1 ? n - 1 : null);
+        if (openViews.isEmpty()) {
+            retaining = false;
+            changes.clear();
+            return;
+        }
+
+        long oldest = openViews.firstKey();
+        for (Map<String, Change> byId : changes.values()) {
+            for (String id : byId.keySet()) {
+                byId.computeIfPresent(id, (k, newest) -> newerThan(newest, oldest));
+            }
+        }
+    }
+
+    // The earliest write to the document after the view's version, or null if it is unchanged since
+    Change firstChangeAfter(String collection, String id, long version) {
+        Map<String, Change> byId = changes.get(collection);
+        Change change = byId != null ? byId.get(id) : null;
+        Change first = null;
+        while (change != null && change.version > version) {
+            first = change;
+            change = change.older;
+        }
+        return first;
+    }
+
+    // IDs that may have been written since some open view began
+    Set<String> changedIds(String collection) {
+        Map<String, Change> byId = changes.get(collection);
+        return byId != null ? byId.keySet() : Collections.emptySet();
+    }
+
+    // Copy of the chain without the entries no open view needs
+    private static Change newerThan(Change newest, long version) {
+        List<Change> kept = new ArrayList<>();
+        for (Change change = newest; change != null && change.version > version; change = change.older) {
+            kept.add(change);
+        }
+        Change chain = null;
+        for (int i = kept.size() - 1; i >= 0; i--) {
+            chain = new Change(kept.get(i).version, kept.get(i).previous, chain);
+        }
+        return chain;
+    }
+}
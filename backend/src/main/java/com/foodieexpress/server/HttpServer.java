@@ -46,6 +46,7 @@ public class HttpServer {
         // Serve static files (frontend) - this should be last
         server.createContext("/", new StaticFileHandler());
 
+        // The in-memory services are not thread-safe, so requests stay on the dispatcher thread
         server.setExecutor(null);
     }
 
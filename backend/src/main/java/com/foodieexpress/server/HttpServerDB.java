@@ -6,58 +6,106 @@ import com.foodieexpress.service.OrderServiceDB;
 import com.foodieexpress.model.MenuItem;
 import com.foodieexpress.model.CartItem;
 import com.foodieexpress.model.Order;
+import com.foodieexpress.database.Aggregation;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Database-backed HTTP Server to serve the frontend and provide REST API endpoints
  */
 public class HttpServerDB {
+    // "nio" serves the same handlers from the selector-based NioHttpServer instead of com.sun.net.httpserver
+    private static final boolean USE_NIO = "nio".equals(System.getProperty("foodieexpress.http.server", "jdk"));
     private final com.sun.net.httpserver.HttpServer server;
+    private final NioHttpServer nioServer;
+    // Requests run here rather than on the dispatcher thread
+    private final ExecutorService executor = RequestExecutors.create("http-db");
     private final MenuServiceDB menuService;
     private final CartServiceDB cartService;
     private final OrderServiceDB orderService;
     private final int port;
+    // Encoded GET /api/menu response, rebuilt when the menu version moves on
+    private volatile CachedResponse menuCache;
+    private EventHandler eventHandler;
 
     public HttpServerDB(int port, MenuServiceDB menuService, CartServiceDB cartService, OrderServiceDB orderService) throws IOException {
         this.port = port;
         this.menuService = menuService;
         this.cartService = cartService;
         this.orderService = orderService;
-        this.server = com.sun.net.httpserver.HttpServer.create(new InetSocketAddress(port), 0);
+        this.server = USE_NIO ? null : com.sun.net.httpserver.HttpServer.create(new InetSocketAddress(port), 0);
+        this.nioServer = USE_NIO ? new NioHttpServer(new InetSocketAddress(port)) : null;
         setupRoutes();
     }
 
     private void setupRoutes() {
         // API endpoints (must be registered before static handler)
-        server.createContext("/api/menu", new MenuHandler());
-        server.createContext("/api/cart", new CartHandler());
-        server.createContext("/api/orders", new OrderHandler());
+        createContext("/api/menu", new MenuHandler());
+        createContext("/api/cart", new CartHandler());
+        createContext("/api/orders", new OrderHandler());
+        createContext("/api/stats", new StatsHandler());
+        eventHandler = new EventHandler();
+        createContext("/api/events", eventHandler);
 
         // Static file handler (must be last)
-        server.createContext("/", new StaticFileHandler());
+        createContext("/", new StaticFileHandler());
         
-        server.setExecutor(null); // Use default executor
+        if (nioServer != null) {
+            nioServer.setExecutor(executor);
+        } else {
+            server.setExecutor(executor);
+        }
+    }
+
+    private void createContext(String path, HttpHandler handler) {
+        if (nioServer != null) {
+            nioServer.createContext(path, handler);
+        } else {
+            server.createContext(path, handler);
+        }
     }
 
     public void start() {
-        server.start();
+        if (nioServer != null) {
+            nioServer.start();
+        } else {
+            server.start();
+        }
         System.out.println("🌐 FoodieExpress Server started on http://localhost:" + port);
         System.out.println("📱 Frontend: http://localhost:" + port);
         System.out.println("🔗 API Base: http://localhost:" + port + "/api");
     }
 
     public void stop() {
-        server.stop(0);
+        if (nioServer != null) {
+            nioServer.stop();
+        } else {
+            server.stop(0);
+        }
+        eventHandler.closeAll();
+        executor.shutdown();
         System.out.println("🛑 Server stopped");
     }
 
@@ -104,13 +152,48 @@ public class HttpServerDB {
         }
 
         private void handleGetMenu(HttpExchange exchange) throws IOException {
-            List<MenuItem> menuItems = menuService.getAllMenuItems();
-            String jsonResponse = menuItemsToJson(menuItems);
+            CachedResponse menu = currentMenu();
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+            // Each encoding has its own tag, since the bytes differ
+            String etag = gzip ? menu.gzipEtag : menu.etag;
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+            
+            // The client's copy is still current
+            if (CachedResponse.matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
             
             exchange.getResponseHeaders().set("Content-Type", "application/json");
-            sendResponse(exchange, 200, jsonResponse);
+            byte[] body = menu.json;
+            if (gzip) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                body = menu.gzip;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        }
+        
+        // The cached menu, re-encoded only if the menu changed since it was built
+        private CachedResponse currentMenu() throws IOException {
+            long version = menuService.getMenuVersion();
+            CachedResponse menu = menuCache;
+            if (menu != null && menu.version == version) {
+                return menu;
+            }
             
-            System.out.println("📋 Menu requested via API - " + menuItems.size() + " items served");
+            // Read after the version, so the cached data is never older than its tag
+            List<MenuItem> menuItems = menuService.getAllMenuItems();
+            menu = new CachedResponse(version, menuItemsToJson(menuItems));
+            menuCache = menu;
+            System.out.println("📋 Menu cache rebuilt (version " + version + ", " + menuItems.size() + " items)");
+            return menu;
         }
 
         private void handleAddMenuItem(HttpExchange exchange) throws IOException {
@@ -237,6 +320,11 @@ public class HttpServerDB {
 
         private void handleGetCart(HttpExchange exchange) throws IOException {
             String customerId = getCustomerIdFromQuery(exchange);
+            String since = parseQuery(exchange.getRequestURI().getQuery()).get("since");
+            if (since != null) {
+                handleGetCartChanges(exchange, customerId, since);
+                return;
+            }
             Map<String, Object> cartData = cartService.getCartData(customerId);
             
             String jsonResponse = cartDataToJson(cartData);
@@ -246,6 +334,26 @@ public class HttpServerDB {
             System.out.println("🛒 Cart requested for customer: " + customerId + " (" + cartService.getCartItemCount(customerId) + " items)");
         }
 
+        // GET /api/cart?since=<version>: only the lines that changed, or 304 if none did
+        private void handleGetCartChanges(HttpExchange exchange, String customerId, String since) throws IOException {
+            Map<String, Object> changes = cartService.getCartChanges(customerId, since);
+            if (isUnchanged(changes, since)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            
+            @SuppressWarnings("unchecked")
+            List<CartItem> items = (List<CartItem>) changes.get("items");
+            String jsonResponse = "{\"customerId\":\"" + escapeJson(customerId) + "\","
+                    + "\"version\":\"" + escapeJson((String) changes.get("version")) + "\","
+                    + "\"full\":" + changes.get("full") + ","
+                    + "\"items\":" + cartItemsToJson(items) + ","
+                    + "\"removed\":" + idsToJson((List<?>) changes.get("removed")) + "}";
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            sendResponse(exchange, 200, jsonResponse);
+        }
+
         private void handleAddToCart(HttpExchange exchange) throws IOException {
             Map<String, String> params = parseRequestBody(exchange);
             String customerId = params.getOrDefault("customerId", "web-customer-1");
@@ -346,6 +454,11 @@ public class HttpServerDB {
 
         private void handleGetOrders(HttpExchange exchange) throws IOException {
             String customerId = getCustomerIdFromQuery(exchange);
+            String since = parseQuery(exchange.getRequestURI().getQuery()).get("since");
+            if (since != null) {
+                handleGetOrderChanges(exchange, customerId, since);
+                return;
+            }
             List<Order> orders = orderService.getOrdersByCustomer(customerId);
             
             String jsonResponse = ordersToJson(orders);
@@ -354,6 +467,26 @@ public class HttpServerDB {
             
             System.out.println("📦 Orders requested for customer: " + customerId + " (" + orders.size() + " orders)");
         }
+        
+        // GET /api/orders?since=<version>: only the orders that changed, or 304 if none did
+        private void handleGetOrderChanges(HttpExchange exchange, String customerId, String since) throws IOException {
+            Map<String, Object> changes = orderService.getOrderChanges(customerId, since);
+            if (isUnchanged(changes, since)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            
+            @SuppressWarnings("unchecked")
+            List<Order> orders = (List<Order>) changes.get("orders");
+            String jsonResponse = "{\"customerId\":\"" + escapeJson(customerId) + "\","
+                    + "\"version\":\"" + escapeJson((String) changes.get("version")) + "\","
+                    + "\"full\":" + changes.get("full") + ","
+                    + "\"orders\":" + ordersToJson(orders) + ","
+                    + "\"removed\":" + idsToJson((List<?>) changes.get("removed")) + "}";
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            sendResponse(exchange, 200, jsonResponse);
+        }
 
         private void handleCreateOrder(HttpExchange exchange) throws IOException {
             Map<String, String> params = parseRequestBody(exchange);
@@ -398,6 +531,293 @@ public class HttpServerDB {
         }
     }
 
+    // Statistics API Handler
+    private class StatsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String method = exchange.getRequestMethod();
+            
+            // Add CORS headers
+            exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+            exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "GET, OPTIONS");
+            exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type");
+            
+            if ("OPTIONS".equals(method)) {
+                sendResponse(exchange, 200, "");
+                return;
+            }
+
+            try {
+                if ("GET".equals(method)) {
+                    String jsonResponse = statsToJson();
+                    exchange.getResponseHeaders().set("Content-Type", "application/json");
+                    sendResponse(exchange, 200, jsonResponse);
+                } else {
+                    sendResponse(exchange, 405, "{\"error\":\"Method not allowed\"}");
+                }
+            } catch (Exception e) {
+                System.err.println("❌ Error handling stats request: " + e.getMessage());
+                sendResponse(exchange, 500, "{\"error\":\"Internal server error\"}");
+            }
+        }
+    }
+
+    /**
+     * Server-Sent Events at /api/events?customerId=...: the customer's cart and orders are sent
+     * when the stream opens and again after each change, instead of the page polling for them.
+     * Streams stay open after handle() returns. Messages are queued per stream and written by
+     * that stream's own writer, so a slow client only holds up itself.
+     */
+    private class EventHandler implements HttpHandler {
+        private static final long HEARTBEAT_SECONDS = 15;
+        // Messages a stream may have waiting; a client further behind is dropped and reconnects
+        private static final int MAX_QUEUED_EVENTS = Integer.getInteger("foodieexpress.http.eventQueue", 32);
+        
+        private final Map<String, Set<EventStream>> streams = new ConcurrentHashMap<>();
+        // Customers with an update already queued, so a burst of changes is sent once
+        private final Set<String> pendingCarts = ConcurrentHashMap.newKeySet();
+        private final Set<String> pendingOrders = ConcurrentHashMap.newKeySet();
+        private final ScheduledExecutorService sender = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "http-events");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Drains one stream's queue at a time; a blocked write only ties up its own thread
+        private final ExecutorService writers = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "http-events-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        EventHandler() {
+            cartService.addCartListener(customerId -> queue(customerId, pendingCarts, this::sendCart));
+            orderService.addOrderListener(customerId -> queue(customerId, pendingOrders, this::sendOrders));
+            // Comment lines keep proxies from timing the stream out and reveal clients that left
+            sender.scheduleAtFixedRate(this::heartbeat, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+        }
+        
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String method = exchange.getRequestMethod();
+            
+            // Add CORS headers
+            exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+            exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "GET, OPTIONS");
+            exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type");
+            
+            if ("OPTIONS".equals(method)) {
+                sendResponse(exchange, 200, "");
+                return;
+            }
+            if (!"GET".equals(method)) {
+                sendResponse(exchange, 405, "{\"error\":\"Method not allowed\"}");
+                return;
+            }
+            
+            String customerId = getCustomerIdFromQuery(exchange);
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, 0);
+            
+            EventStream stream = new EventStream(customerId, exchange, MAX_QUEUED_EVENTS);
+            streams.computeIfAbsent(customerId, k -> ConcurrentHashMap.newKeySet()).add(stream);
+            
+            // Current state first, so the page needs no separate load
+            sender.execute(() -> {
+                write(stream, "retry: 3000\n\n");
+                write(stream, event("cart", cartDataToJson(cartService.getCartData(customerId))));
+                write(stream, event("orders", ordersToJson(orderService.getOrdersByCustomer(customerId))));
+            });
+            System.out.println("📡 Event stream opened for customer: " + customerId);
+        }
+        
+        private void queue(String customerId, Set<String> pending, Consumer<String> send) {
+            if (streams.containsKey(customerId) && pending.add(customerId)) {
+                sender.execute(() -> {
+                    pending.remove(customerId);
+                    send.accept(customerId);
+                });
+            }
+        }
+        
+        private void sendCart(String customerId) {
+            broadcast(customerId, () -> event("cart", cartDataToJson(cartService.getCartData(customerId))));
+        }
+        
+        private void sendOrders(String customerId) {
+            broadcast(customerId, () -> event("orders", ordersToJson(orderService.getOrdersByCustomer(customerId))));
+        }
+        
+        // Encode once for all of the customer's open pages
+        private void broadcast(String customerId, Supplier<String> message) {
+            Set<EventStream> customerStreams = streams.get(customerId);
+            if (customerStreams == null || customerStreams.isEmpty()) return;
+            String text = message.get();
+            for (EventStream stream : customerStreams) {
+                write(stream, text);
+            }
+        }
+        
+        private void heartbeat() {
+            for (Set<EventStream> customerStreams : streams.values()) {
+                for (EventStream stream : customerStreams) {
+                    write(stream, ": ping\n\n");
+                }
+            }
+        }
+        
+        private String event(String name, String json) {
+            return "event: " + name + "\ndata: " + json + "\n\n";
+        }
+        
+        // Queue a message and start the stream's writer unless it is already running
+        private void write(EventStream stream, String text) {
+            if (stream.isClosed()) return;
+            if (!stream.offer(text)) {
+                // The page loads the current state again when it reconnects
+                System.out.println("⚠️ Event stream fell behind for customer: " + stream.customerId);
+                remove(stream);
+                return;
+            }
+            if (stream.startWriting()) {
+                writers.execute(() -> drain(stream));
+            }
+        }
+        
+        private void drain(EventStream stream) {
+            try {
+                do {
+                    String text;
+                    while ((text = stream.poll()) != null) {
+                        stream.send(text);
+                    }
+                } while (stream.keepWriting());
+            } catch (IOException e) {
+                remove(stream);
+            }
+        }
+        
+        private void remove(EventStream stream) {
+            streams.computeIfPresent(stream.customerId, (k, set) -> {
+                set.remove(stream);
+                return set.isEmpty() ? null : set;
+            });
+            if (stream.markClosed()) {
+                // Closing flushes the stream, which can block on a client that stopped reading
+                writers.execute(stream::close);
+                System.out.println("📡 Event stream closed for customer: " + stream.customerId);
+            }
+        }
+        
+        void closeAll() {
+            sender.shutdownNow();
+            writers.shutdownNow();
+            for (Set<EventStream> customerStreams : streams.values()) {
+                customerStreams.forEach(EventStream::close);
+            }
+            streams.clear();
+        }
+    }
+    
+    private static final class EventStream {
+        final String customerId;
+        private final HttpExchange exchange;
+        private final OutputStream body;
+        private final BlockingQueue<String> queued;
+        private final AtomicBoolean writing = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        
+        EventStream(String customerId, HttpExchange exchange, int capacity) {
+            this.customerId = customerId;
+            this.exchange = exchange;
+            this.body = exchange.getResponseBody();
+            this.queued = new ArrayBlockingQueue<>(capacity);
+        }
+        
+        // False when the queue is full
+        boolean offer(String text) {
+            return queued.offer(text);
+        }
+        
+        String poll() {
+            return queued.poll();
+        }
+        
+        // True for the one caller that should start draining
+        boolean startWriting() {
+            return writing.compareAndSet(false, true);
+        }
+        
+        // Stop draining, unless a message arrived after the last poll and nobody else took it
+        boolean keepWriting() {
+            writing.set(false);
+            return !queued.isEmpty() && startWriting();
+        }
+        
+        // True only the first time, so a stream is closed and logged once
+        boolean markClosed() {
+            return closed.compareAndSet(false, true);
+        }
+        
+        boolean isClosed() {
+            return closed.get();
+        }
+        
+        // Each message goes out as its own chunk
+        void send(String text) throws IOException {
+            body.write(text.getBytes(StandardCharsets.UTF_8));
+            body.flush();
+        }
+        
+        void close() {
+            try {
+                exchange.close();
+            } catch (RuntimeException e) {
+                // The client is already gone
+            }
+        }
+    }
+
+    /**
+     * A response body encoded once, plain and gzipped, and tagged with the version of the data
+     * it was built from. The tag also carries the server's start time, since versions restart at zero,
+     * and the gzipped body's tag ends in -gz.
+     */
+    private static final class CachedResponse {
+        private static final String INSTANCE = Long.toString(System.currentTimeMillis(), 36);
+        
+        final long version;
+        final String etag;
+        final String gzipEtag;
+        final byte[] json;
+        final byte[] gzip;
+        
+        CachedResponse(long version, String json) throws IOException {
+            this.version = version;
+            this.etag = "\"" + INSTANCE + "-" + version + "\"";
+            this.gzipEtag = "\"" + INSTANCE + "-" + version + "-gz\"";
+            this.json = json.getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzipStream = new GZIPOutputStream(compressed)) {
+                gzipStream.write(this.json);
+            }
+            this.gzip = compressed.toByteArray();
+        }
+        
+        // If-None-Match may list several tags, or * for any
+        static boolean matches(String ifNoneMatch, String etag) {
+            if (ifNoneMatch == null) return false;
+            for (String tag : ifNoneMatch.split(",")) {
+                String candidate = tag.trim();
+                if (candidate.startsWith("W/")) {
+                    candidate = candidate.substring(2);
+                }
+                if (candidate.equals("*") || candidate.equals(etag)) return true;
+            }
+            return false;
+        }
+    }
+
     // Static file handler for serving frontend
     private class StaticFileHandler implements HttpHandler {
         @Override
@@ -540,8 +960,13 @@ public class HttpServerDB {
         // Add cart items array
         @SuppressWarnings("unchecked")
         List<CartItem> items = (List<CartItem>) cartData.get("items");
-        json.append("\"items\":[");
+        json.append("\"items\":").append(cartItemsToJson(items));
+        json.append("}");
+        return json.toString();
+    }
 
+    private String cartItemsToJson(List<CartItem> items) {
+        StringBuilder json = new StringBuilder("[");
         for (int i = 0; i < items.size(); i++) {
             if (i > 0) json.append(",");
             CartItem item = items.get(i);
@@ -563,10 +988,31 @@ public class HttpServerDB {
             json.append("}");
         }
 
-        json.append("]}");
+        json.append("]");
         return json.toString();
     }
 
+    // Numbers as they are, anything else as a string
+    private String idsToJson(List<?> ids) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < ids.size(); i++) {
+            if (i > 0) json.append(",");
+            Object id = ids.get(i);
+            if (id instanceof Number) {
+                json.append(id);
+            } else {
+                json.append("\"").append(escapeJson(String.valueOf(id))).append("\"");
+            }
+        }
+        json.append("]");
+        return json.toString();
+    }
+
+    // Nothing to send back to a client whose version is already the latest
+    private boolean isUnchanged(Map<String, Object> changes, String since) {
+        return !(Boolean) changes.get("full") && changes.get("version").equals(since);
+    }
+
     private String ordersToJson(List<Order> orders) {
         StringBuilder json = new StringBuilder("[");
         for (int i = 0; i < orders.size(); i++) {
@@ -585,6 +1031,36 @@ public class HttpServerDB {
         );
     }
 
+    private String statsToJson() {
+        Aggregation.Group orders = orderService.getOrderTotals();
+        Map<Object, Aggregation.Group> ordersByStatus = orderService.getOrderStatsByStatus();
+        StringBuilder byStatus = new StringBuilder("{");
+        for (Order.OrderStatus status : Order.OrderStatus.values()) {
+            Aggregation.Group group = ordersByStatus.get(status.toString());
+            if (byStatus.length() > 1) byStatus.append(",");
+            byStatus.append(String.format("\"%s\":{\"count\":%d,\"revenue\":%.2f}", status,
+                    group != null ? group.count() : 0, group != null ? group.sum("totalAmount") : 0.0));
+        }
+        byStatus.append("}");
+
+        StringBuilder byCategory = new StringBuilder("{");
+        for (Map.Entry<Object, Aggregation.Group> entry : menuService.getCategoryStats().entrySet()) {
+            if (byCategory.length() > 1) byCategory.append(",");
+            byCategory.append(String.format("\"%s\":%d", escapeJson((String) entry.getKey()), entry.getValue().count()));
+        }
+        byCategory.append("}");
+
+        Aggregation.Group carts = cartService.getCartTotals();
+
+        return String.format(
+            "{\"orders\":{\"total\":%d,\"revenue\":%.2f,\"averageOrderValue\":%.2f,\"byStatus\":%s}," +
+            "\"menu\":{\"itemsByCategory\":%s}," +
+            "\"carts\":{\"open\":%d,\"cartItems\":%d,\"quantity\":%d}}",
+            orders.count(), orders.sum("totalAmount"), orders.avg("totalAmount"), byStatus,
+            byCategory, cartService.getOpenCartCount(), carts.count(), (long) carts.sum("quantity")
+        );
+    }
+
     private String escapeJson(String str) {
         if (str == null) return "";
         return str.replace("\\", "\\\\")
@@ -0,0 +1,308 @@
+package com.foodieexpress.server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A request on a {@link NioHttpServer} connection, seen by handlers as an ordinary HttpExchange.
+ * sendResponseHeaders() follows the com.sun.net.httpserver contract: a positive length fixes the
+ * body size, -1 means no body and 0 streams the body in chunks, each flush() sending one.
+ */
+final class NioExchange extends HttpExchange {
+    // Buffered body bytes are sent once this many have accumulated
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+
+    private final NioHttpServer server;
+    private final NioHttpServer.Connection connection;
+    private final HttpContext context;
+    private final String method;
+    private final URI uri;
+    private final String protocol;
+    private final Headers requestHeaders;
+    private final Headers responseHeaders = new Headers();
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final ResponseStream response = new ResponseStream();
+    private InputStream requestBody;
+    private OutputStream responseBody = response;
+
+    private int responseCode = -1;
+    private boolean keepAlive;
+    private boolean chunked = false;
+    private boolean noBody = false;
+    private long declaredLength = -1;
+    private long written = 0;
+    private boolean closed = false;
+
+    NioExchange(NioHttpServer server, NioHttpServer.Connection connection, HttpContext context, String method,
+                URI uri, String protocol, Headers requestHeaders, byte[] body) {
+        this.server = server;
+        this.connection = connection;
+        this.context = context;
+        this.method = method;
+        this.uri = uri;
+        this.protocol = protocol;
+        this.requestHeaders = requestHeaders;
+        this.requestBody = new ByteArrayInputStream(body);
+
+        String connectionHeader = requestHeaders.getFirst("Connection");
+        this.keepAlive = "HTTP/1.1".equals(protocol)
+                ? !"close".equalsIgnoreCase(connectionHeader)
+                : "keep-alive".equalsIgnoreCase(connectionHeader);
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return uri;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        return context;
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return requestBody;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return responseBody;
+    }
+
+    @Override
+    public synchronized void sendResponseHeaders(int code, long length) throws IOException {
+        if (responseCode >= 0) throw new IOException("Response headers already sent");
+        responseCode = code;
+
+        boolean http11 = "HTTP/1.1".equals(protocol);
+        if ("close".equalsIgnoreCase(responseHeaders.getFirst("Connection"))) {
+            keepAlive = false;
+        }
+        noBody = length == -1 || "HEAD".equals(method) || code == 204 || code == 304 || code < 200;
+        if (code >= 200 && code != 204 && code != 304) {
+            if (length > 0) {
+                responseHeaders.set("Content-Length", String.valueOf(length));
+                declaredLength = length;
+            } else if (length == -1) {
+                responseHeaders.set("Content-Length", "0");
+            } else if (http11) {
+                responseHeaders.set("Transfer-Encoding", "chunked");
+                chunked = !noBody;
+            } else {
+                // HTTP/1.0 has no chunks; the body ends when the connection closes
+                keepAlive = false;
+            }
+        }
+        if (!keepAlive) {
+            responseHeaders.set("Connection", "close");
+        } else if (!http11) {
+            responseHeaders.set("Connection", "keep-alive");
+        }
+        responseHeaders.set("Date", DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC)));
+
+        StringBuilder head = new StringBuilder("HTTP/1.1 ").append(code).append(' ').append(reason(code)).append("\r\n");
+        for (Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+            for (String value : header.getValue()) {
+                head.append(header.getKey()).append(": ").append(value).append("\r\n");
+            }
+        }
+        head.append("\r\n");
+        response.head = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+
+        // Streamed responses start right away; fixed-length ones go out with their body
+        if (chunked) {
+            response.flush();
+        }
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return connection.remoteAddress();
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return connection.localAddress();
+    }
+
+    @Override
+    public String getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        attributes.put(name, value);
+    }
+
+    @Override
+    public void setStreams(InputStream in, OutputStream out) {
+        if (in != null) requestBody = in;
+        if (out != null) responseBody = out;
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return null;
+    }
+
+    // The handler threw: answer 500 if nothing was sent yet, otherwise cut the connection
+    synchronized void fail() {
+        if (responseCode < 0) {
+            try {
+                sendResponseHeaders(500, -1);
+                return;
+            } catch (IOException e) {
+                // Fall through and drop the connection
+            }
+        }
+        keepAlive = false;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        try {
+            if (responseCode < 0) {
+                sendResponseHeaders(500, -1);
+            }
+            response.finish();
+            closed = true;
+            server.complete(connection, keepAlive);
+        } catch (IOException e) {
+            closed = true;
+            server.abort(connection);
+        }
+    }
+
+    static String reason(int code) {
+        switch (code) {
+            case 100: return "Continue";
+            case 200: return "OK";
+            case 201: return "Created";
+            case 204: return "No Content";
+            case 304: return "Not Modified";
+            case 400: return "Bad Request";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 413: return "Payload Too Large";
+            case 431: return "Request Header Fields Too Large";
+            case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            case 503: return "Service Unavailable";
+            default: return "Status " + code;
+        }
+    }
+
+    // Collects the body and hands it to the connection in as few pieces as possible
+    private final class ResponseStream extends OutputStream {
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        private byte[] head;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            synchronized (NioExchange.this) {
+                if (responseCode < 0) throw new IOException("sendResponseHeaders() has not been called");
+                if (closed) throw new IOException("Response already closed");
+                if (length == 0) return;
+                if (noBody) throw new IOException("Response has no body");
+                if (declaredLength >= 0 && written + length > declaredLength) {
+                    throw new IOException("Response body exceeds Content-Length " + declaredLength);
+                }
+                written += length;
+                pending.write(bytes, offset, length);
+                if (pending.size() >= FLUSH_THRESHOLD) {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (NioExchange.this) {
+                if (head == null && pending.size() == 0) return;
+                ByteArrayOutputStream frame = new ByteArrayOutputStream(
+                        (head != null ? head.length : 0) + pending.size() + 16);
+                if (head != null) {
+                    frame.write(head);
+                    head = null;
+                }
+                if (pending.size() > 0) {
+                    if (chunked) {
+                        frame.write((Integer.toHexString(pending.size()) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                        pending.writeTo(frame);
+                        frame.write("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                    } else {
+                        pending.writeTo(frame);
+                    }
+                    pending.reset();
+                }
+                server.send(connection, ByteBuffer.wrap(frame.toByteArray()));
+            }
+        }
+
+        // Send the rest of the body; a short fixed-length body leaves the connection unusable
+        void finish() throws IOException {
+            flush();
+            if (chunked) {
+                server.send(connection, ByteBuffer.wrap("0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1)));
+            } else if (declaredLength >= 0 && written < declaredLength) {
+                keepAlive = false;
+            }
+        }
+
+        @Override
+        public void close() {
+            NioExchange.this.close();
+        }
+    }
+}
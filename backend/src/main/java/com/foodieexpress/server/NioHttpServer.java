@@ -0,0 +1,583 @@
+package com.foodieexpress.server;
+
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Selector-based HTTP/1.1 server that runs the same HttpHandlers as com.sun.net.httpserver.
+ * A single thread accepts, reads and writes for every connection and hands each complete
+ * request to the executor. Connections stay open between requests, and requests a client
+ * pipelines are answered one at a time, in the order they arrived.
+ */
+final class NioHttpServer {
+    private static final int BUFFER_SIZE = Integer.getInteger("foodieexpress.http.bufferSize", 16 * 1024);
+    private static final int MAX_CONNECTIONS = Integer.getInteger("foodieexpress.http.maxConnections", 10_000);
+    private static final long IDLE_TIMEOUT_MS = Long.getLong("foodieexpress.http.idleTimeoutMs", 60_000L);
+    // Response bytes a connection may have waiting to be sent; a handler writing more waits for the client
+    private static final long MAX_QUEUED_BYTES = Long.getLong("foodieexpress.http.maxQueuedBytes", 1024 * 1024L);
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private final Map<String, Context> contexts = new ConcurrentHashMap<>();
+    private final BufferPool buffers = new BufferPool(BUFFER_SIZE, 1024);
+    // Work for the selector thread, queued by request threads
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Set<Connection> connections = new HashSet<>();
+    private final Selector selector;
+    private final ServerSocketChannel listener;
+    private Executor executor;
+    private Thread thread;
+    private volatile boolean running;
+
+    NioHttpServer(InetSocketAddress address) throws IOException {
+        selector = Selector.open();
+        listener = ServerSocketChannel.open();
+        listener.bind(address, 1024);
+        listener.configureBlocking(false);
+        listener.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    void createContext(String path, HttpHandler handler) {
+        contexts.put(path, new Context(path, handler));
+    }
+
+    void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    void start() {
+        running = true;
+        thread = new Thread(this::run, "http-nio-selector");
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        long lastSweep = System.currentTimeMillis();
+        while (running) {
+            try {
+                selector.select(1_000);
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isReadable()) {
+                        read(connection);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        write(connection);
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastSweep >= 1_000) {
+                    closeIdle(now);
+                    lastSweep = now;
+                }
+            } catch (IOException e) {
+                System.err.println("❌ HTTP selector error: " + e.getMessage());
+            }
+        }
+
+        for (Connection connection : new ArrayList<>(connections)) {
+            close(connection);
+        }
+        try {
+            listener.close();
+            selector.close();
+        } catch (IOException e) {
+            System.err.println("❌ Failed to close HTTP listener: " + e.getMessage());
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = listener.accept()) != null) {
+            if (connections.size() >= MAX_CONNECTIONS) {
+                channel.close();
+                continue;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            connections.add(connection);
+        }
+    }
+
+    private void read(Connection connection) {
+        if (connection.input == null) {
+            connection.input = buffers.acquire();
+        }
+        try {
+            if (connection.channel.read(connection.input) < 0) {
+                close(connection);
+                return;
+            }
+        } catch (IOException e) {
+            close(connection);
+            return;
+        }
+        connection.lastActive = System.currentTimeMillis();
+        nextRequest(connection);
+    }
+
+    // Hand the request at the head of the connection's input to a handler, once it has fully arrived
+    private void nextRequest(Connection connection) {
+        if (connection.input == null) return;
+        if (connection.input.position() == 0) {
+            buffers.release(connection.input);
+            connection.input = null;
+            return;
+        }
+
+        Request request;
+        try {
+            request = parse(connection);
+        } catch (HttpError e) {
+            reject(connection, e.status);
+            return;
+        }
+        if (request == null) return;
+
+        // Later pipelined requests wait in the socket until this one is answered
+        connection.busy = true;
+        connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+        Context context = contextFor(request.uri.getPath());
+        NioExchange exchange = new NioExchange(this, connection, context, request.method, request.uri,
+                request.protocol, request.headers, request.body);
+        executor.execute(() -> handle(exchange, context));
+    }
+
+    // As with com.sun.net.httpserver, the handler closes the exchange; one it leaves open keeps streaming
+    private void handle(NioExchange exchange, Context context) {
+        try {
+            if (context == null) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+            } else {
+                context.getHandler().handle(exchange);
+            }
+        } catch (Exception e) {
+            System.err.println("❌ Unhandled error in HTTP handler: " + e.getMessage());
+            exchange.fail();
+            exchange.close();
+        }
+    }
+
+    // Longest registered path the request path starts with, as com.sun.net.httpserver matches contexts
+    private Context contextFor(String path) {
+        Context best = null;
+        for (Context context : contexts.values()) {
+            if (path != null && path.startsWith(context.getPath())
+                    && (best == null || context.getPath().length() > best.getPath().length())) {
+                best = context;
+            }
+        }
+        return best;
+    }
+
+    // The request at the start of the input buffer, or null if part of it has not arrived yet
+    private Request parse(Connection connection) throws HttpError {
+        ByteBuffer input = connection.input;
+        int end = input.position();
+        int headerEnd = -1;
+        for (int i = 3; i < end; i++) {
+            if (input.get(i) == '\n' && input.get(i - 1) == '\r' && input.get(i - 2) == '\n' && input.get(i - 3) == '\r') {
+                headerEnd = i + 1;
+                break;
+            }
+        }
+        if (headerEnd < 0) {
+            if (end == input.capacity()) throw new HttpError(431);
+            return null;
+        }
+
+        byte[] head = new byte[headerEnd];
+        input.get(0, head);
+        String[] lines = new String(head, StandardCharsets.ISO_8859_1).split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3) throw new HttpError(400);
+
+        Headers headers = new Headers();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) throw new HttpError(400);
+            headers.add(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+        }
+
+        // Request bodies are small forms; chunked uploads are not supported
+        if (headers.containsKey("Transfer-Encoding")) throw new HttpError(501);
+        int length = 0;
+        String contentLength = headers.getFirst("Content-Length");
+        if (contentLength != null) {
+            try {
+                length = Integer.parseInt(contentLength);
+            } catch (NumberFormatException e) {
+                throw new HttpError(400);
+            }
+            if (length < 0) throw new HttpError(400);
+        }
+        if (headerEnd + length > input.capacity()) throw new HttpError(413);
+        if (end < headerEnd + length) {
+            if (!connection.continueSent && "100-continue".equalsIgnoreCase(headers.getFirst("Expect"))) {
+                connection.continueSent = true;
+                enqueue(connection, ByteBuffer.wrap(CONTINUE));
+                write(connection);
+            }
+            return null;
+        }
+
+        byte[] body = new byte[length];
+        input.get(headerEnd, body);
+        // Keep whatever follows, the start of a pipelined request, at the front of the buffer
+        input.flip();
+        input.position(headerEnd + length);
+        input.compact();
+        connection.continueSent = false;
+
+        try {
+            return new Request(requestLine[0], new URI(requestLine[1]), requestLine[2], headers, body);
+        } catch (URISyntaxException e) {
+            throw new HttpError(400);
+        }
+    }
+
+    // Answer a request that cannot be handled and drop the connection
+    private void reject(Connection connection, int status) {
+        String response = "HTTP/1.1 " + status + " " + NioExchange.reason(status)
+                + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n";
+        connection.busy = true;
+        connection.closeAfterResponse = true;
+        connection.responseDone = true;
+        connection.key.interestOps(0);
+        enqueue(connection, ByteBuffer.wrap(response.getBytes(StandardCharsets.ISO_8859_1)));
+        write(connection);
+    }
+
+    // Queue response bytes from a request thread, waiting while the client is behind on reading
+    void send(Connection connection, ByteBuffer bytes) throws IOException {
+        synchronized (connection) {
+            long deadline = System.currentTimeMillis() + IDLE_TIMEOUT_MS;
+            while (!connection.closed && connection.queuedBytes > 0
+                    && connection.queuedBytes + bytes.remaining() > MAX_QUEUED_BYTES) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    abort(connection);
+                    throw new IOException("Client stopped reading responses");
+                }
+                try {
+                    connection.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the client to read");
+                }
+            }
+            if (connection.closed) throw new IOException("Connection closed by client");
+            enqueue(connection, bytes);
+        }
+        runOnSelector(() -> write(connection));
+    }
+
+    private void enqueue(Connection connection, ByteBuffer bytes) {
+        synchronized (connection) {
+            connection.queuedBytes += bytes.remaining();
+        }
+        connection.output.add(bytes);
+    }
+
+    // Bytes have left the output queue; wake request threads waiting for room
+    private void dequeued(Connection connection, long bytes) {
+        synchronized (connection) {
+            connection.queuedBytes -= bytes;
+            connection.notifyAll();
+        }
+    }
+
+    // The response is complete; once it is written, read the next request or close
+    void complete(Connection connection, boolean keepAlive) {
+        runOnSelector(() -> {
+            connection.closeAfterResponse = !keepAlive;
+            connection.responseDone = true;
+            connection.lastActive = System.currentTimeMillis();
+            write(connection);
+        });
+    }
+
+    void abort(Connection connection) {
+        runOnSelector(() -> close(connection));
+    }
+
+    private void runOnSelector(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private void write(Connection connection) {
+        if (connection.closed) return;
+        try {
+            while (true) {
+                if ((connection.writing == null || !connection.writing.hasRemaining()) && !fill(connection)) break;
+                if (connection.channel.write(connection.writing) > 0) {
+                    connection.lastActive = System.currentTimeMillis();
+                }
+                if (connection.writing.hasRemaining()) {
+                    // The socket is full; carry on when it drains
+                    connection.stalled = true;
+                    connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            close(connection);
+            return;
+        }
+
+        connection.stalled = false;
+        connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_WRITE);
+        if (connection.responseDone) {
+            connection.responseDone = false;
+            connection.busy = false;
+            if (connection.closeAfterResponse) {
+                close(connection);
+                return;
+            }
+            connection.key.interestOps(SelectionKey.OP_READ);
+            nextRequest(connection);
+        }
+    }
+
+    // Copy queued output into the connection's direct buffer; false once nothing is left to send
+    private boolean fill(Connection connection) {
+        if (connection.output.isEmpty()) {
+            if (connection.writing != null) {
+                buffers.release(connection.writing);
+                connection.writing = null;
+            }
+            return false;
+        }
+
+        if (connection.writing == null) {
+            connection.writing = buffers.acquire();
+        } else {
+            connection.writing.clear();
+        }
+        ByteBuffer next;
+        long moved = 0;
+        while (connection.writing.hasRemaining() && (next = connection.output.peek()) != null) {
+            moved += Math.min(next.remaining(), connection.writing.remaining());
+            if (next.remaining() <= connection.writing.remaining()) {
+                connection.writing.put(next);
+                connection.output.poll();
+            } else {
+                int limit = next.limit();
+                next.limit(next.position() + connection.writing.remaining());
+                connection.writing.put(next);
+                next.limit(limit);
+            }
+        }
+        connection.writing.flip();
+        dequeued(connection, moved);
+        return true;
+    }
+
+    // Connections waiting for a request, or for the client to read, are dropped after the idle timeout;
+    // open streams are not
+    private void closeIdle(long now) {
+        for (Connection connection : new ArrayList<>(connections)) {
+            if ((!connection.busy || connection.stalled) && now - connection.lastActive > IDLE_TIMEOUT_MS) {
+                close(connection);
+            }
+        }
+    }
+
+    private void close(Connection connection) {
+        if (connection.closed) return;
+        connection.closed = true;
+        connections.remove(connection);
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+        if (connection.input != null) {
+            buffers.release(connection.input);
+            connection.input = null;
+        }
+        if (connection.writing != null) {
+            buffers.release(connection.writing);
+            connection.writing = null;
+        }
+        connection.output.clear();
+        synchronized (connection) {
+            connection.queuedBytes = 0;
+            connection.notifyAll();
+        }
+    }
+
+    /**
+     * One client connection. Everything but the output queue, its byte count and the
+     * closed flag belongs to the selector thread.
+     */
+    static final class Connection {
+        final SocketChannel channel;
+        final Queue<ByteBuffer> output = new ConcurrentLinkedQueue<>();
+        volatile boolean closed = false;
+        // Bytes in the output queue, guarded by the connection's monitor
+        long queuedBytes = 0;
+        SelectionKey key;
+        // Pooled buffers, held only while they carry unread or unsent bytes
+        ByteBuffer input;
+        ByteBuffer writing;
+        boolean busy = false;
+        boolean responseDone = false;
+        boolean closeAfterResponse = false;
+        boolean continueSent = false;
+        // Output is waiting for the client to read; counts as idle once nothing moves
+        boolean stalled = false;
+        long lastActive = System.currentTimeMillis();
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        InetSocketAddress remoteAddress() {
+            try {
+                return (InetSocketAddress) channel.getRemoteAddress();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        InetSocketAddress localAddress() {
+            try {
+                return (InetSocketAddress) channel.getLocalAddress();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    private static final class Request {
+        final String method;
+        final URI uri;
+        final String protocol;
+        final Headers headers;
+        final byte[] body;
+
+        Request(String method, URI uri, String protocol, Headers headers, byte[] body) {
+            this.method = method;
+            this.uri = uri;
+            this.protocol = protocol;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+
+    private static final class HttpError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpError(int status) {
+            super(null, null, false, false);
+            this.status = status;
+        }
+    }
+
+    // Handler registration; there is no com.sun.net.httpserver.HttpServer behind it, so getServer() is null
+    static final class Context extends HttpContext {
+        private final String path;
+        private HttpHandler handler;
+        private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+        private final List<Filter> filters = new ArrayList<>();
+        private Authenticator authenticator;
+
+        Context(String path, HttpHandler handler) {
+            this.path = path;
+            this.handler = handler;
+        }
+
+        @Override
+        public HttpHandler getHandler() {
+            return handler;
+        }
+
+        @Override
+        public void setHandler(HttpHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public com.sun.net.httpserver.HttpServer getServer() {
+            return null;
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public List<Filter> getFilters() {
+            return filters;
+        }
+
+        @Override
+        public Authenticator setAuthenticator(Authenticator authenticator) {
+            Authenticator previous = this.authenticator;
+            this.authenticator = authenticator;
+            return previous;
+        }
+
+        @Override
+        public Authenticator getAuthenticator() {
+            return authenticator;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.foodieexpress.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors that run HTTP requests off the server's dispatcher thread, so a slow
+ * request (a checkout waiting on its log flush) does not hold up every other client.
+ * Chosen with foodieexpress.http.executor:
+ *   virtual - one virtual thread per request (default; falls back to a pool before Java 21)
+ *   pool    - a fixed pool of foodieexpress.http.threads platform threads
+ */
+final class RequestExecutors {
+    private static final String MODE = System.getProperty("foodieexpress.http.executor", "virtual");
+    private static final int THREADS = Integer.getInteger("foodieexpress.http.threads", 64);
+
+    private RequestExecutors() {}
+
+    static ExecutorService create(String name) {
+        if ("virtual".equals(MODE)) {
+            ExecutorService executor = virtualThreadPerTask();
+            if (executor != null) {
+                System.out.println("🧵 " + name + ": one virtual thread per request");
+                return executor;
+            }
+            System.out.println("⚠️ Virtual threads need Java 21, using a pool of " + THREADS + " threads instead");
+        } else if (!"pool".equals(MODE)) {
+            System.err.println("⚠️ Unknown foodieexpress.http.executor '" + MODE + "', using a thread pool");
+        }
+
+        System.out.println("🧵 " + name + ": pool of " + THREADS + " request threads");
+        return Executors.newFixedThreadPool(THREADS, daemonThreads(name));
+    }
+
+    // Looked up reflectively so the server still builds and runs on Java 17
+    private static ExecutorService virtualThreadPerTask() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
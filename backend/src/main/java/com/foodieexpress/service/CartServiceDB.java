@@ -2,8 +2,17 @@ package com.foodieexpress.service;
 
 import com.foodieexpress.model.CartItem;
 import com.foodieexpress.model.MenuItem;
+import com.foodieexpress.database.Aggregation;
+import com.foodieexpress.database.ChangeLog;
 import com.foodieexpress.database.DatabaseManager;
+import com.foodieexpress.database.MaterializedAggregate;
+import com.foodieexpress.database.ReadView;
+import com.foodieexpress.database.Transaction;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -11,11 +20,29 @@ import java.util.stream.Collectors;
  */
 public class CartServiceDB {
     private static final String COLLECTION = "cart_items";
+    // Striped per-customer locks for changes that read a cart before writing it; ReentrantLock
+    // rather than synchronized, so a virtual thread waiting for a commit under one does not pin its carrier
+    private static final Lock[] CUSTOMER_LOCKS = new Lock[64];
+    static {
+        for (int i = 0; i < CUSTOMER_LOCKS.length; i++) {
+            CUSTOMER_LOCKS[i] = new ReentrantLock();
+        }
+    }
     private final MenuServiceDB menuService;
+    // Cart lines and item quantity per customer, kept current on every write
+    private final MaterializedAggregate cartsByCustomer;
+    // Numbered cart line changes per customer, for clients that fetch only what changed
+    private final ChangeLog cartChanges;
+    // Told the customer ID after every change to that customer's cart
+    private final List<Consumer<String>> cartListeners = new CopyOnWriteArrayList<>();
 
     public CartServiceDB(MenuServiceDB menuService) {
         this.menuService = menuService;
         DatabaseManager.initialize();
+        DatabaseManager.createIndex(COLLECTION, "customerId", false);
+        this.cartsByCustomer = DatabaseManager.materialize(
+                Aggregation.on(COLLECTION).groupBy("customerId").sum("quantity"));
+        this.cartChanges = DatabaseManager.trackChanges(COLLECTION, "customerId");
     }
 
     // Add item to cart
@@ -26,131 +53,179 @@ public class CartServiceDB {
             return false;
         }
 
-        // Check if item already exists in cart
-        List<Map<String, Object>> existingItems = DatabaseManager.findByField(COLLECTION, "customerId", customerId);
-        Map<String, Object> existingCartItem = null;
+        // Look up and write under the customer's lock, so parallel adds of one item share a line
+        Lock lock = customerLock(customerId);
+        lock.lock();
+        try {
+            // Check if item already exists in cart
+            List<Map<String, Object>> existingItems = DatabaseManager.findByField(COLLECTION, "customerId", customerId);
+            Map<String, Object> existingCartItem = null;
         
-        for (Map<String, Object> item : existingItems) {
-            if (Objects.equals(item.get("itemId"), itemId)) {
-                existingCartItem = item;
-                break;
+            for (Map<String, Object> item : existingItems) {
+                if (Objects.equals(item.get("itemId"), itemId)) {
+                    existingCartItem = item;
+                    break;
+                }
             }
-        }
 
-        if (existingCartItem != null) {
-            // Update existing item quantity
-            int currentQuantity = ((Number) existingCartItem.get("quantity")).intValue();
-            Map<String, Object> updates = new HashMap<>();
-            updates.put("quantity", currentQuantity + quantity);
-            updates.put("specialInstructions", specialInstructions);
+            if (existingCartItem != null) {
+                // Update existing item quantity
+                int currentQuantity = ((Number) existingCartItem.get("quantity")).intValue();
+                Map<String, Object> updates = new HashMap<>();
+                updates.put("quantity", currentQuantity + quantity);
+                updates.put("specialInstructions", specialInstructions);
             
-            String cartItemId = existingCartItem.get("_id").toString();
-            boolean updated = DatabaseManager.update(COLLECTION, cartItemId, updates);
+                String cartItemId = existingCartItem.get("id").toString();
+                boolean updated = DatabaseManager.update(COLLECTION, cartItemId, updates);
             
-            if (updated) {
-                System.out.println("🛒 Updated cart item quantity for customer: " + customerId);
-                return true;
-            }
-        } else {
-            // Add new item to cart
-            Map<String, Object> cartItem = new HashMap<>();
-            cartItem.put("customerId", customerId);
-            cartItem.put("itemId", itemId);
-            cartItem.put("quantity", quantity);
-            cartItem.put("specialInstructions", specialInstructions != null ? specialInstructions : "");
+                if (updated) {
+                    System.out.println("🛒 Updated cart item quantity for customer: " + customerId);
+                    cartChanged(customerId);
+                    return true;
+                }
+            } else {
+                // Add new item to cart
+                Map<String, Object> cartItem = new HashMap<>();
+                cartItem.put("customerId", customerId);
+                cartItem.put("itemId", itemId);
+                cartItem.put("quantity", quantity);
+                cartItem.put("specialInstructions", specialInstructions != null ? specialInstructions : "");
             
-            String id = DatabaseManager.insert(COLLECTION, cartItem);
+                String id = DatabaseManager.insert(COLLECTION, cartItem);
             
-            if (id != null) {
-                System.out.println("➕ Added item to cart for customer: " + customerId + " (Item: " + itemId + ", Qty: " + quantity + ")");
-                return true;
+                if (id != null) {
+                    System.out.println("➕ Added item to cart for customer: " + customerId + " (Item: " + itemId + ", Qty: " + quantity + ")");
+                    cartChanged(customerId);
+                    return true;
+                }
             }
-        }
         
-        return false;
+            return false;
+        } finally {
+            lock.unlock();
+        }
     }
 
     // Get cart items for customer
     public List<CartItem> getCartItems(String customerId) {
-        List<Map<String, Object>> cartDocuments = DatabaseManager.findByField(COLLECTION, "customerId", customerId);
+        try (ReadView view = DatabaseManager.beginSnapshot()) {
+            return getCartItems(view, customerId);
+        }
+    }
+
+    // Get cart items for customer with menu prices as of the same snapshot
+    public List<CartItem> getCartItems(ReadView view, String customerId) {
+        List<Map<String, Object>> cartDocuments = view.findByField(COLLECTION, "customerId", customerId);
         List<CartItem> cartItems = new ArrayList<>();
         
         for (Map<String, Object> doc : cartDocuments) {
-            int itemId = ((Number) doc.get("itemId")).intValue();
-            Optional<MenuItem> menuItem = menuService.getMenuItemById(itemId);
-            
-            if (menuItem.isPresent()) {
-                int quantity = ((Number) doc.get("quantity")).intValue();
-                String instructions = (String) doc.getOrDefault("specialInstructions", "");
-                
-                CartItem cartItem = new CartItem(menuItem.get(), quantity, instructions);
-                cartItems.add(cartItem);
-            }
+            documentToCartItem(view, doc).ifPresent(cartItems::add);
         }
         
         return cartItems;
     }
 
+    private Optional<CartItem> documentToCartItem(ReadView view, Map<String, Object> doc) {
+        int itemId = ((Number) doc.get("itemId")).intValue();
+        Optional<MenuItem> menuItem = menuService.getMenuItemById(view, itemId);
+        
+        return menuItem.map(item -> {
+            int quantity = ((Number) doc.get("quantity")).intValue();
+            String instructions = (String) doc.getOrDefault("specialInstructions", "");
+            return new CartItem(item, quantity, instructions);
+        });
+    }
+
     // Update cart item quantity
     public boolean updateCartItemQuantity(String customerId, int itemId, int newQuantity) {
         if (newQuantity <= 0) {
             return removeItemFromCart(customerId, itemId);
         }
 
-        List<Map<String, Object>> cartItems = DatabaseManager.findByField(COLLECTION, "customerId", customerId);
+        Lock lock = customerLock(customerId);
+        lock.lock();
+        try {
+            List<Map<String, Object>> cartItems = DatabaseManager.findByField(COLLECTION, "customerId", customerId);
         
-        for (Map<String, Object> item : cartItems) {
-            if (Objects.equals(item.get("itemId"), itemId)) {
-                String cartItemId = item.get("_id").toString();
-                Map<String, Object> updates = new HashMap<>();
-                updates.put("quantity", newQuantity);
+            for (Map<String, Object> item : cartItems) {
+                if (Objects.equals(item.get("itemId"), itemId)) {
+                    String cartItemId = item.get("id").toString();
+                    Map<String, Object> updates = new HashMap<>();
+                    updates.put("quantity", newQuantity);
                 
-                boolean updated = DatabaseManager.update(COLLECTION, cartItemId, updates);
-                if (updated) {
-                    System.out.println("🔄 Updated cart item quantity for customer: " + customerId);
-                    return true;
+                    boolean updated = DatabaseManager.update(COLLECTION, cartItemId, updates);
+                    if (updated) {
+                        System.out.println("🔄 Updated cart item quantity for customer: " + customerId);
+                        cartChanged(customerId);
+                        return true;
+                    }
+                    break;
                 }
-                break;
             }
-        }
         
-        return false;
+            return false;
+        } finally {
+            lock.unlock();
+        }
     }
 
     // Remove item from cart
     public boolean removeItemFromCart(String customerId, int itemId) {
-        List<Map<String, Object>> cartItems = DatabaseManager.findByField(COLLECTION, "customerId", customerId);
+        Lock lock = customerLock(customerId);
+        lock.lock();
+        try {
+            List<Map<String, Object>> cartItems = DatabaseManager.findByField(COLLECTION, "customerId", customerId);
         
-        for (Map<String, Object> item : cartItems) {
-            if (Objects.equals(item.get("itemId"), itemId)) {
-                String cartItemId = item.get("_id").toString();
-                boolean deleted = DatabaseManager.delete(COLLECTION, cartItemId);
+            for (Map<String, Object> item : cartItems) {
+                if (Objects.equals(item.get("itemId"), itemId)) {
+                    String cartItemId = item.get("id").toString();
+                    boolean deleted = DatabaseManager.delete(COLLECTION, cartItemId);
                 
-                if (deleted) {
-                    System.out.println("➖ Removed item from cart for customer: " + customerId);
-                    return true;
+                    if (deleted) {
+                        System.out.println("➖ Removed item from cart for customer: " + customerId);
+                        cartChanged(customerId);
+                        return true;
+                    }
+                    break;
                 }
-                break;
             }
-        }
         
-        return false;
+            return false;
+        } finally {
+            lock.unlock();
+        }
     }
 
     // Clear entire cart
     public void clearCart(String customerId) {
-        List<Map<String, Object>> cartItems = DatabaseManager.findByField(COLLECTION, "customerId", customerId);
-
-        for (Map<String, Object> item : cartItems) {
-            Object idObj = item.get("id");
-            if (idObj != null) {
-                String cartItemId = idObj.toString();
-                DatabaseManager.delete(COLLECTION, cartItemId);
-                System.out.println("🗑️ Removed cart item ID: " + cartItemId);
+        Lock lock = customerLock(customerId);
+        lock.lock();
+        try {
+            List<Map<String, Object>> cartItems = DatabaseManager.findByField(COLLECTION, "customerId", customerId);
+
+            for (Map<String, Object> item : cartItems) {
+                Object idObj = item.get("id");
+                if (idObj != null) {
+                    String cartItemId = idObj.toString();
+                    DatabaseManager.delete(COLLECTION, cartItemId);
+                    System.out.println("🗑️ Removed cart item ID: " + cartItemId);
+                }
+            }
+
+            System.out.println("🧹 Cleared cart for customer: " + customerId + " (" + cartItems.size() + " items removed)");
+            if (!cartItems.isEmpty()) {
+                cartChanged(customerId);
             }
+        } finally {
+            lock.unlock();
         }
+    }
 
-        System.out.println("🧹 Cleared cart for customer: " + customerId + " (" + cartItems.size() + " items removed)");
+    // Stage removal of exactly the cart lines seen in the view; lines added since stay in the cart
+    public void clearCart(Transaction transaction, ReadView view, String customerId) {
+        for (Map<String, Object> item : view.findByField(COLLECTION, "customerId", customerId)) {
+            transaction.delete(COLLECTION, item.get("id").toString());
+        }
     }
 
     // Get cart item count
@@ -229,32 +304,62 @@ public class CartServiceDB {
         return false;
     }
 
+    // Held by every change that reads a customer's cart and then writes it, checkout included
+    Lock customerLock(String customerId) {
+        return CUSTOMER_LOCKS[Math.floorMod(Objects.hashCode(customerId), CUSTOMER_LOCKS.length)];
+    }
+
+    // Register a callback for cart changes; it runs on the thread that made the change
+    public void addCartListener(Consumer<String> listener) {
+        cartListeners.add(listener);
+    }
+
+    // Also called by OrderServiceDB once a checkout has emptied the cart
+    void cartChanged(String customerId) {
+        for (Consumer<String> listener : cartListeners) {
+            listener.accept(customerId);
+        }
+    }
+
     // Display cart statistics for all customers
     public void displayCartStatistics() {
-        List<Map<String, Object>> allCartItems = DatabaseManager.findAll(COLLECTION);
+        Map<Object, Aggregation.Group> cartsByCustomer = getCartStatsByCustomer();
         
-        if (allCartItems.isEmpty()) {
+        if (cartsByCustomer.isEmpty()) {
             System.out.println("📊 No cart data available.");
             return;
         }
         
-        // Group by customer
-        Map<String, List<Map<String, Object>>> cartsByCustomer = allCartItems.stream()
-                .collect(Collectors.groupingBy(item -> (String) item.get("customerId")));
+        long totalCartItems = getCartTotals().count();
         
         System.out.println("📊 CART STATISTICS:");
         System.out.println("   Active Customers: " + cartsByCustomer.size());
-        System.out.println("   Total Cart Items: " + allCartItems.size());
+        System.out.println("   Total Cart Items: " + totalCartItems);
         
-        for (Map.Entry<String, List<Map<String, Object>>> entry : cartsByCustomer.entrySet()) {
-            String customerId = entry.getKey();
-            int itemCount = getCartItemCount(customerId);
+        for (Map.Entry<Object, Aggregation.Group> entry : cartsByCustomer.entrySet()) {
+            String customerId = (String) entry.getKey();
+            int itemCount = (int) entry.getValue().sum("quantity");
             double subtotal = getCartSubtotal(customerId);
             
             System.out.printf("   %s: %d items ($%.2f)%n", customerId, itemCount, subtotal);
         }
     }
 
+    // Cart lines and item quantity per customer with a non-empty cart
+    public Map<Object, Aggregation.Group> getCartStatsByCustomer() {
+        return cartsByCustomer.groups();
+    }
+
+    // Cart lines and item quantity across all carts
+    public Aggregation.Group getCartTotals() {
+        return cartsByCustomer.total();
+    }
+
+    // Number of customers with a non-empty cart
+    public int getOpenCartCount() {
+        return cartsByCustomer.groupCount();
+    }
+
     // Display all carts (admin function)
     public void displayAllCarts() {
         List<Map<String, Object>> allCartItems = DatabaseManager.findAll(COLLECTION);
@@ -277,6 +382,43 @@ public class CartServiceDB {
         }
     }
 
+    /**
+     * Cart lines added, changed or removed since a version from an earlier call, for API clients
+     * that poll. "items" holds the current lines and "removed" the menu item IDs of removed lines;
+     * apply removals first, since an item can be removed and added again. When the version is
+     * too old to answer from, "full" is true and "items" is the whole cart.
+     */
+    public Map<String, Object> getCartChanges(String customerId, String since) {
+        ChangeLog.Changes changes = cartChanges.since(customerId, since);
+        Map<String, Object> cartData = new HashMap<>();
+        cartData.put("customerId", customerId);
+        cartData.put("version", changes.version());
+        cartData.put("full", !changes.isComplete());
+        
+        if (!changes.isComplete()) {
+            cartData.put("items", getCartItems(customerId));
+            cartData.put("removed", Collections.emptyList());
+            return cartData;
+        }
+        
+        List<CartItem> items = new ArrayList<>();
+        try (ReadView view = DatabaseManager.beginSnapshot()) {
+            for (String id : changes.written()) {
+                // Deleted after the change was counted; the deletion comes with the next version
+                Map<String, Object> doc = view.findById(COLLECTION, id);
+                if (doc != null) {
+                    documentToCartItem(view, doc).ifPresent(items::add);
+                }
+            }
+        }
+        List<Object> removed = changes.deleted().stream()
+                .map(doc -> doc.get("itemId"))
+                .collect(Collectors.toList());
+        cartData.put("items", items);
+        cartData.put("removed", removed);
+        return cartData;
+    }
+
     // Get real-time cart data for API
     public Map<String, Object> getCartData(String customerId) {
         List<CartItem> items = getCartItems(customerId);
@@ -1,8 +1,14 @@
 package com.foodieexpress.service;
 
 import com.foodieexpress.model.MenuItem;
+import com.foodieexpress.database.Aggregation;
+import com.foodieexpress.database.Condition;
 import com.foodieexpress.database.DatabaseManager;
+import com.foodieexpress.database.MaterializedAggregate;
+import com.foodieexpress.database.Query;
+import com.foodieexpress.database.ReadView;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
@@ -10,10 +16,21 @@ import java.util.stream.Collectors;
  */
 public class MenuServiceDB {
     private static final String COLLECTION = "menu_items";
+    // Items without the flag count as available
+    private static final Condition AVAILABLE = Condition.or(Condition.eq("available", true), Condition.eq("available", null));
+    // Item count and price totals per category, and available items, kept current on every write
+    private final MaterializedAggregate itemsByCategory;
+    private final MaterializedAggregate availableItems;
+    // Bumped by every change made through this service, so cached menu responses know when to rebuild
+    private final AtomicLong menuVersion = new AtomicLong();
 
     public MenuServiceDB() {
         // Initialize database
         DatabaseManager.initialize();
+        DatabaseManager.createIndex(COLLECTION, "category", false);
+        DatabaseManager.createSortedIndex(COLLECTION, "price");
+        this.itemsByCategory = DatabaseManager.materialize(Aggregation.on(COLLECTION).groupBy("category").sum("price"));
+        this.availableItems = DatabaseManager.materialize(Aggregation.on(COLLECTION).where(AVAILABLE));
     }
 
     // Get all menu items from database
@@ -26,9 +43,7 @@ public class MenuServiceDB {
 
     // Get available menu items only
     public List<MenuItem> getAvailableMenuItems() {
-        return getAllMenuItems().stream()
-                .filter(MenuItem::isAvailable)
-                .collect(Collectors.toList());
+        return findMenuItems(AVAILABLE);
     }
 
     // Get menu item by ID
@@ -40,24 +55,42 @@ public class MenuServiceDB {
         return Optional.empty();
     }
 
+    // Get menu item by ID as of a snapshot
+    public Optional<MenuItem> getMenuItemById(ReadView view, int id) {
+        Map<String, Object> document = view.findById(COLLECTION, String.valueOf(id));
+        if (document != null) {
+            return Optional.of(documentToMenuItem(document));
+        }
+        return Optional.empty();
+    }
+
     // Get menu items by category
     public List<MenuItem> getMenuItemsByCategory(String category) {
-        List<Map<String, Object>> documents = DatabaseManager.findByField(COLLECTION, "category", category);
-        return documents.stream()
-                .map(this::documentToMenuItem)
-                .filter(MenuItem::isAvailable)
-                .collect(Collectors.toList());
+        return findMenuItems(Condition.eq("category", category).and(AVAILABLE));
+    }
+
+    // Get available menu items within a price range, cheapest first
+    public List<MenuItem> getMenuItemsByPriceRange(double minPrice, double maxPrice) {
+        return findMenuItems(Query.from(COLLECTION)
+                .where(Condition.range("price", minPrice, maxPrice).and(AVAILABLE))
+                .orderBy("price", false));
     }
 
     // Search menu items
     public List<MenuItem> searchMenuItems(String searchTerm) {
-        String lowerSearchTerm = searchTerm.toLowerCase();
-        return getAvailableMenuItems().stream()
-                .filter(item -> 
-                    item.getName().toLowerCase().contains(lowerSearchTerm) ||
-                    item.getDescription().toLowerCase().contains(lowerSearchTerm) ||
-                    item.getCategory().toLowerCase().contains(lowerSearchTerm)
-                )
+        return findMenuItems(AVAILABLE.and(Condition.or(
+                Condition.contains("name", searchTerm),
+                Condition.contains("description", searchTerm),
+                Condition.contains("category", searchTerm))));
+    }
+
+    private List<MenuItem> findMenuItems(Condition condition) {
+        return findMenuItems(Query.from(COLLECTION).where(condition));
+    }
+
+    private List<MenuItem> findMenuItems(Query query) {
+        return DatabaseManager.find(query).stream()
+                .map(this::documentToMenuItem)
                 .collect(Collectors.toList());
     }
 
@@ -74,6 +107,7 @@ public class MenuServiceDB {
         String id = DatabaseManager.insert(COLLECTION, document);
         
         if (id != null) {
+            menuVersion.incrementAndGet();
             MenuItem item = new MenuItem(Integer.parseInt(id), name, description, price, category, imageUrl);
             System.out.println("✅ New menu item added to database: " + name + " (ID: " + id + ")");
             System.out.println("📋 Total menu items: " + DatabaseManager.count(COLLECTION));
@@ -89,6 +123,7 @@ public class MenuServiceDB {
         if (item.isPresent()) {
             boolean deleted = DatabaseManager.delete(COLLECTION, String.valueOf(itemId));
             if (deleted) {
+                menuVersion.incrementAndGet();
                 System.out.println("🗑️ Menu item deleted from database: " + item.get().getName() + " (ID: " + itemId + ")");
                 System.out.println("📋 Total menu items: " + DatabaseManager.count(COLLECTION));
                 return true;
@@ -108,6 +143,7 @@ public class MenuServiceDB {
 
         boolean updated = DatabaseManager.update(COLLECTION, String.valueOf(itemId), updates);
         if (updated) {
+            menuVersion.incrementAndGet();
             System.out.println("✏️ Menu item updated in database: " + name + " (ID: " + itemId + ")");
             return true;
         }
@@ -123,6 +159,7 @@ public class MenuServiceDB {
             
             boolean updated = DatabaseManager.update(COLLECTION, String.valueOf(itemId), updates);
             if (updated) {
+                menuVersion.incrementAndGet();
                 System.out.println("🔄 Menu item availability toggled: " + item.get().getName() + " (ID: " + itemId + ")");
                 return true;
             }
@@ -130,11 +167,23 @@ public class MenuServiceDB {
         return false;
     }
 
+    // Changes with every add, update, delete or availability toggle
+    public long getMenuVersion() {
+        return menuVersion.get();
+    }
+
     // Get all categories
     public Set<String> getAllCategories() {
-        return getAllMenuItems().stream()
-                .map(MenuItem::getCategory)
-                .collect(Collectors.toSet());
+        Set<String> categories = new HashSet<>();
+        for (Object category : itemsByCategory.groups().keySet()) {
+            categories.add((String) category);
+        }
+        return categories;
+    }
+
+    // Item count and average price per category
+    public Map<Object, Aggregation.Group> getCategoryStats() {
+        return itemsByCategory.groups();
     }
 
     // Display all menu items
@@ -174,43 +223,31 @@ public class MenuServiceDB {
 
     // Display menu statistics
     public void displayMenuStatistics() {
-        List<MenuItem> allItems = getAllMenuItems();
-        List<MenuItem> availableItems = getAvailableMenuItems();
-        Set<String> categories = getAllCategories();
+        Map<Object, Aggregation.Group> categories = itemsByCategory.groups();
+        Aggregation.Group allItems = itemsByCategory.total();
+        long available = availableItems.total().count();
         
         System.out.println("\n" + "=".repeat(60));
         System.out.println("                    MENU STATISTICS");
         System.out.println("=".repeat(60));
-        System.out.println("📊 Total Items: " + allItems.size());
-        System.out.println("✅ Available Items: " + availableItems.size());
-        System.out.println("❌ Unavailable Items: " + (allItems.size() - availableItems.size()));
+        System.out.println("📊 Total Items: " + allItems.count());
+        System.out.println("✅ Available Items: " + available);
+        System.out.println("❌ Unavailable Items: " + (allItems.count() - available));
         System.out.println("📁 Categories: " + categories.size());
         
         if (!categories.isEmpty()) {
             System.out.println("\n📋 Items by Category:");
-            for (String category : categories) {
-                long count = allItems.stream()
-                        .filter(item -> item.getCategory().equals(category))
-                        .count();
-                System.out.println("  " + category + ": " + count + " items");
+            for (Map.Entry<Object, Aggregation.Group> category : categories.entrySet()) {
+                System.out.println("  " + category.getKey() + ": " + category.getValue().count() + " items");
             }
         }
         
-        if (!allItems.isEmpty()) {
-            double avgPrice = allItems.stream()
-                    .mapToDouble(MenuItem::getPrice)
-                    .average()
-                    .orElse(0.0);
-            
-            double minPrice = allItems.stream()
-                    .mapToDouble(MenuItem::getPrice)
-                    .min()
-                    .orElse(0.0);
+        if (allItems.count() > 0) {
+            double avgPrice = allItems.avg("price");
             
-            double maxPrice = allItems.stream()
-                    .mapToDouble(MenuItem::getPrice)
-                    .max()
-                    .orElse(0.0);
+            // Cheapest and dearest items straight from the price index
+            double minPrice = priceAtEnd(false);
+            double maxPrice = priceAtEnd(true);
             
             System.out.println("\n💰 Price Statistics:");
             System.out.printf("  Average Price: $%.2f%n", avgPrice);
@@ -223,6 +260,11 @@ public class MenuServiceDB {
         DatabaseManager.displayDatabaseStats();
     }
 
+    private double priceAtEnd(boolean highest) {
+        List<Map<String, Object>> ends = DatabaseManager.findRange(COLLECTION, "price", null, null, 1, highest);
+        return ends.isEmpty() ? 0.0 : ((Number) ends.get(0).get("price")).doubleValue();
+    }
+
     // Convert database document to MenuItem
     private MenuItem documentToMenuItem(Map<String, Object> document) {
         int id = ((Number) document.get("id")).intValue();
@@ -242,19 +284,9 @@ public class MenuServiceDB {
     public Map<String, Object> getDatabaseStats() {
         Map<String, Object> stats = new HashMap<>();
         stats.put("totalItems", DatabaseManager.count(COLLECTION));
-        stats.put("availableItems", getAvailableMenuItems().size());
-        stats.put("categories", getAllCategories().size());
-        
-        List<MenuItem> items = getAllMenuItems();
-        if (!items.isEmpty()) {
-            double avgPrice = items.stream()
-                    .mapToDouble(MenuItem::getPrice)
-                    .average()
-                    .orElse(0.0);
-            stats.put("averagePrice", avgPrice);
-        } else {
-            stats.put("averagePrice", 0.0);
-        }
+        stats.put("availableItems", availableItems.total().count());
+        stats.put("categories", itemsByCategory.groupCount());
+        stats.put("averagePrice", itemsByCategory.total().avg("price"));
         
         return stats;
     }
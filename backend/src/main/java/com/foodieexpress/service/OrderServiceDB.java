@@ -2,10 +2,22 @@ package com.foodieexpress.service;
 
 import com.foodieexpress.model.Order;
 import com.foodieexpress.model.CartItem;
+import com.foodieexpress.model.MenuItem;
+import com.foodieexpress.database.Aggregation;
+import com.foodieexpress.database.ChangeLog;
+import com.foodieexpress.database.Condition;
 import com.foodieexpress.database.DatabaseManager;
+import com.foodieexpress.database.MaterializedAggregate;
+import com.foodieexpress.database.Query;
+import com.foodieexpress.database.ReadView;
+import com.foodieexpress.database.Transaction;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -13,16 +25,48 @@ import java.util.stream.Collectors;
  */
 public class OrderServiceDB {
     private static final String COLLECTION = "orders";
+    // Orders in these states no longer change and are moved to the on-disk archive
+    private static final Set<String> CLOSED_STATUSES = Set.of(
+            Order.OrderStatus.DELIVERED.toString(), Order.OrderStatus.CANCELLED.toString());
     private final CartServiceDB cartService;
+    // Order count and revenue per status, kept current on every write
+    private final MaterializedAggregate ordersByStatus;
+    // Numbered order changes per customer, for clients that fetch only what changed
+    private final ChangeLog orderChanges;
+    // Told the customer ID after every new order or status change for that customer
+    private final List<Consumer<String>> orderListeners = new CopyOnWriteArrayList<>();
 
     public OrderServiceDB(CartServiceDB cartService) {
         this.cartService = cartService;
         DatabaseManager.initialize();
+        DatabaseManager.createIndex(COLLECTION, "orderId", true);
+        DatabaseManager.createIndex(COLLECTION, "customerId", false);
+        DatabaseManager.createIndex(COLLECTION, "status", false);
+        DatabaseManager.createSortedIndex(COLLECTION, "createdAt");
+        DatabaseManager.archiveWhen(COLLECTION, doc -> CLOSED_STATUSES.contains(doc.get("status")));
+        DatabaseManager.whenLoaded(COLLECTION, this::migrateLegacyOrderItems);
+        this.ordersByStatus = DatabaseManager.materialize(
+                Aggregation.on(COLLECTION).groupBy("status").sum("totalAmount"));
+        this.orderChanges = DatabaseManager.trackChanges(COLLECTION, "customerId");
     }
 
     // Create order from cart
     public Order createOrderFromCart(String customerId, String deliveryType, String address, String phone) {
-        List<CartItem> cartItems = cartService.getCartItems(customerId);
+        // Cart lines and menu prices come from one snapshot, so concurrent edits cannot skew the totals;
+        // the cart lock keeps an add from landing on a line between the snapshot and its removal
+        Lock lock = cartService.customerLock(customerId);
+        lock.lock();
+        try {
+            try (ReadView view = DatabaseManager.beginSnapshot()) {
+                return createOrderFromCart(view, customerId, deliveryType, address, phone);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Order createOrderFromCart(ReadView view, String customerId, String deliveryType, String address, String phone) {
+        List<CartItem> cartItems = cartService.getCartItems(view, customerId);
         
         if (cartItems.isEmpty()) {
             System.out.println("❌ Cannot create order: Cart is empty for customer " + customerId);
@@ -30,16 +74,22 @@ public class OrderServiceDB {
         }
 
         // Calculate totals
-        double subtotal = cartService.getCartSubtotal(customerId);
+        double subtotal = cartItems.stream().mapToDouble(CartItem::getTotalPrice).sum();
         double deliveryFee = "express".equals(deliveryType) ? 5.99 : 2.99;
         double tax = subtotal * 0.08; // 8% tax
         double totalAmount = subtotal + deliveryFee + tax;
 
-        // Generate order ID
-        String orderId = generateOrderId();
+        // Generate order ID from the document's own sequence ID, so it is unique
+        Long id = DatabaseManager.nextId(COLLECTION);
+        if (id == null) {
+            System.out.println("❌ Cannot create order: no order ID available");
+            return null;
+        }
+        String orderId = generateOrderId(id);
 
         // Create order document
         Map<String, Object> orderDoc = new HashMap<>();
+        orderDoc.put("id", id <= Integer.MAX_VALUE ? (Object) id.intValue() : (Object) id);
         orderDoc.put("orderId", orderId);
         orderDoc.put("customerId", customerId);
         orderDoc.put("status", "PENDING");
@@ -68,13 +118,12 @@ public class OrderServiceDB {
         orderDoc.put("items", orderItems);
         orderDoc.put("totalItemCount", cartItems.stream().mapToInt(CartItem::getQuantity).sum());
 
-        // Save order to database
-        String id = DatabaseManager.insert(COLLECTION, orderDoc);
+        // Save the order and empty the cart in one transaction, so a crash cannot leave both behind
+        Transaction transaction = DatabaseManager.beginTransaction();
+        transaction.insert(COLLECTION, orderDoc);
+        cartService.clearCart(transaction, view, customerId);
         
-        if (id != null) {
-            // Clear the cart after successful order creation
-            cartService.clearCart(customerId);
-            
+        if (transaction.commit()) {
             // Create Order object
             Order order = documentToOrder(orderDoc);
             
@@ -84,6 +133,8 @@ public class OrderServiceDB {
             System.out.println("🚚 Delivery Type: " + deliveryType);
             System.out.println("📍 Address: " + address);
             
+            orderChanged(customerId);
+            cartService.cartChanged(customerId);
             return order;
         }
         
@@ -99,30 +150,72 @@ public class OrderServiceDB {
         return Optional.empty();
     }
 
-    // Get orders by customer
+    // Get orders by customer, latest first
     public List<Order> getOrdersByCustomer(String customerId) {
-        List<Map<String, Object>> orderDocs = DatabaseManager.findByField(COLLECTION, "customerId", customerId);
+        List<Map<String, Object>> orderDocs = DatabaseManager.find(Query.from(COLLECTION)
+                .where(Condition.eq("customerId", customerId))
+                .orderBy("createdAt", true));
         return orderDocs.stream()
                 .map(this::documentToOrder)
-                .sorted((o1, o2) -> o2.getOrderTime().compareTo(o1.getOrderTime())) // Latest first
                 .collect(Collectors.toList());
     }
 
-    // Get orders by status
+    /**
+     * Orders placed, changed or removed since a version from an earlier call, for API clients
+     * that poll: "orders" holds the current state of each and "removed" the IDs of removed ones.
+     * When the version is too old to answer from, "full" is true and "orders" is every order.
+     */
+    public Map<String, Object> getOrderChanges(String customerId, String since) {
+        ChangeLog.Changes changes = orderChanges.since(customerId, since);
+        Map<String, Object> orderData = new HashMap<>();
+        orderData.put("customerId", customerId);
+        orderData.put("version", changes.version());
+        orderData.put("full", !changes.isComplete());
+        
+        if (!changes.isComplete()) {
+            orderData.put("orders", getOrdersByCustomer(customerId));
+            orderData.put("removed", Collections.emptyList());
+            return orderData;
+        }
+        
+        List<Order> orders = new ArrayList<>();
+        for (String id : changes.written()) {
+            Map<String, Object> doc = DatabaseManager.findById(COLLECTION, id);
+            if (doc != null) {
+                orders.add(documentToOrder(doc));
+            }
+        }
+        List<Object> removed = changes.deleted().stream()
+                .map(doc -> doc.get("orderId"))
+                .collect(Collectors.toList());
+        orderData.put("orders", orders);
+        orderData.put("removed", removed);
+        return orderData;
+    }
+
+    // Get orders by status, latest first
     public List<Order> getOrdersByStatus(Order.OrderStatus status) {
-        List<Map<String, Object>> orderDocs = DatabaseManager.findByField(COLLECTION, "status", status.toString());
+        List<Map<String, Object>> orderDocs = DatabaseManager.find(Query.from(COLLECTION)
+                .where(Condition.eq("status", status.toString()))
+                .orderBy("createdAt", true));
         return orderDocs.stream()
                 .map(this::documentToOrder)
-                .sorted((o1, o2) -> o2.getOrderTime().compareTo(o1.getOrderTime()))
                 .collect(Collectors.toList());
     }
 
-    // Get all orders
+    // Get all orders (latest first, straight from the createdAt index)
     public List<Order> getAllOrders() {
-        List<Map<String, Object>> orderDocs = DatabaseManager.findAll(COLLECTION);
+        List<Map<String, Object>> orderDocs = DatabaseManager.findRange(COLLECTION, "createdAt", null, null, 0, true);
+        return orderDocs.stream()
+                .map(this::documentToOrder)
+                .collect(Collectors.toList());
+    }
+
+    // Get the latest N orders
+    public List<Order> getLatestOrders(int limit) {
+        List<Map<String, Object>> orderDocs = DatabaseManager.findRange(COLLECTION, "createdAt", null, null, limit, true);
         return orderDocs.stream()
                 .map(this::documentToOrder)
-                .sorted((o1, o2) -> o2.getOrderTime().compareTo(o1.getOrderTime()))
                 .collect(Collectors.toList());
     }
 
@@ -132,7 +225,7 @@ public class OrderServiceDB {
         
         if (!orders.isEmpty()) {
             Map<String, Object> orderDoc = orders.get(0);
-            String id = orderDoc.get("_id").toString();
+            String id = orderDoc.get("id").toString();
             
             Map<String, Object> updates = new HashMap<>();
             updates.put("status", newStatus.toString());
@@ -141,6 +234,7 @@ public class OrderServiceDB {
             boolean updated = DatabaseManager.update(COLLECTION, id, updates);
             if (updated) {
                 System.out.println("📋 Order status updated: " + orderId + " → " + newStatus);
+                orderChanged((String) orderDoc.get("customerId"));
                 return true;
             }
         }
@@ -148,6 +242,17 @@ public class OrderServiceDB {
         return false;
     }
 
+    // Register a callback for order changes; it runs on the thread that made the change
+    public void addOrderListener(Consumer<String> listener) {
+        orderListeners.add(listener);
+    }
+
+    private void orderChanged(String customerId) {
+        for (Consumer<String> listener : orderListeners) {
+            listener.accept(customerId);
+        }
+    }
+
     // Cancel order
     public boolean cancelOrder(String orderId) {
         Optional<Order> order = getOrderById(orderId);
@@ -167,11 +272,11 @@ public class OrderServiceDB {
 
     // Get recent orders (last 24 hours)
     public List<Order> getRecentOrders() {
-        List<Order> allOrders = getAllOrders();
-        LocalDateTime yesterday = LocalDateTime.now().minusDays(1);
+        long yesterday = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+        List<Map<String, Object>> orderDocs = DatabaseManager.findRange(COLLECTION, "createdAt", yesterday, null, 0, true);
         
-        return allOrders.stream()
-                .filter(order -> order.getOrderTime().isAfter(yesterday))
+        return orderDocs.stream()
+                .map(this::documentToOrder)
                 .collect(Collectors.toList());
     }
 
@@ -204,8 +309,12 @@ public class OrderServiceDB {
         System.out.println("\n📋 ORDER ITEMS:");
         System.out.println("-".repeat(70));
         
-        // Note: In a real implementation, we'd store and retrieve the actual cart items
-        // For now, we'll show basic order info
+        for (CartItem item : o.getItems()) {
+            System.out.printf("🍽️  %-30s %2d × $%.2f = $%.2f%n",
+                    item.getMenuItem().getName(), item.getQuantity(),
+                    item.getMenuItem().getPrice(), item.getTotalPrice());
+        }
+        System.out.println("-".repeat(70));
         System.out.printf("📊 Total Items: %d%n", o.getTotalItemCount());
         System.out.printf("💰 Subtotal: $%.2f%n", o.getSubtotal());
         System.out.printf("🚚 Delivery Fee: $%.2f%n", o.getDeliveryFee());
@@ -337,43 +446,50 @@ public class OrderServiceDB {
 
     // Display order statistics
     public void displayOrderStatistics() {
-        List<Order> allOrders = getAllOrders();
-
-        if (allOrders.isEmpty()) {
+        Map<Object, Aggregation.Group> byStatus = getOrderStatsByStatus();
+        if (byStatus.isEmpty()) {
             System.out.println("📊 No order data available.");
             return;
         }
 
-        // Group by status
-        Map<Order.OrderStatus, Long> ordersByStatus = allOrders.stream()
-                .collect(Collectors.groupingBy(Order::getStatus, Collectors.counting()));
+        Aggregation.Group totals = getOrderTotals();
+        long totalOrders = totals.count();
+        double totalRevenue = totals.sum("totalAmount");
+        double avgOrderValue = totals.avg("totalAmount");
 
-        // Calculate totals
-        double totalRevenue = allOrders.stream()
-                .mapToDouble(Order::getTotalAmount)
-                .sum();
-
-        double avgOrderValue = totalRevenue / allOrders.size();
+        long yesterday = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+        int recentOrders = DatabaseManager.findRange(COLLECTION, "createdAt", yesterday, null, 0, true).size();
 
         System.out.println("📊 ORDER STATISTICS:");
-        System.out.println("   Total Orders: " + allOrders.size());
+        System.out.println("   Total Orders: " + totalOrders);
         System.out.printf("   Total Revenue: $%.2f%n", totalRevenue);
         System.out.printf("   Average Order Value: $%.2f%n", avgOrderValue);
 
         System.out.println("   Orders by Status:");
         for (Order.OrderStatus status : Order.OrderStatus.values()) {
-            long count = ordersByStatus.getOrDefault(status, 0L);
+            Aggregation.Group group = byStatus.get(status.toString());
+            long count = group != null ? group.count() : 0L;
             System.out.println("     " + getStatusEmoji(status) + " " + status + ": " + count);
         }
 
         // Recent orders
-        List<Order> recentOrders = getRecentOrders();
-        System.out.println("   Recent Orders (24h): " + recentOrders.size());
+        System.out.println("   Recent Orders (24h): " + recentOrders);
+    }
+
+    // Order count and revenue per status
+    public Map<Object, Aggregation.Group> getOrderStatsByStatus() {
+        return ordersByStatus.groups();
+    }
+
+    // Order count, revenue and average order value over all orders
+    public Aggregation.Group getOrderTotals() {
+        return ordersByStatus.total();
     }
 
     // Helper methods
-    private String generateOrderId() {
-        return "ORD" + System.currentTimeMillis() % 1000000;
+    // Zero-padded to 8 digits, so it never matches the older ORD + 6-digit timestamp IDs
+    private String generateOrderId(long id) {
+        return String.format("ORD%08d", id);
     }
 
     private LocalDateTime calculateEstimatedDelivery(String deliveryType) {
@@ -422,10 +538,87 @@ public class OrderServiceDB {
 
         // Note: Financial fields (subtotal, tax, etc.) are calculated by the Order class
         // We store them in the database but the Order object calculates them based on items
+        List<CartItem> items = documentToItems(doc.get("items"));
+        if (!items.isEmpty()) {
+            order.setItems(items);
+        }
 
         return order;
     }
 
+    // Rebuild order line items from their stored form
+    @SuppressWarnings("unchecked")
+    private List<CartItem> documentToItems(Object storedItems) {
+        List<CartItem> items = new ArrayList<>();
+        if (storedItems instanceof String) {
+            // Not migrated yet: the orders collection is still loading
+            storedItems = parseLegacyItems((String) storedItems);
+        }
+        if (!(storedItems instanceof List)) {
+            return items;
+        }
+
+        for (Object element : (List<Object>) storedItems) {
+            if (!(element instanceof Map)) continue;
+            Map<String, Object> itemDoc = (Map<String, Object>) element;
+
+            int itemId = ((Number) itemDoc.getOrDefault("itemId", 0)).intValue();
+            String name = (String) itemDoc.getOrDefault("itemName", "");
+            double price = ((Number) itemDoc.getOrDefault("itemPrice", 0.0)).doubleValue();
+            int quantity = ((Number) itemDoc.getOrDefault("quantity", 1)).intValue();
+            String instructions = (String) itemDoc.getOrDefault("specialInstructions", "");
+
+            MenuItem menuItem = new MenuItem(itemId, name, "", price, "", "");
+            items.add(new CartItem(menuItem, quantity, instructions != null ? instructions : ""));
+        }
+        return items;
+    }
+
+    // Orders written before line items were stored as structured data hold them as a toString() dump
+    private void migrateLegacyOrderItems() {
+        for (Map<String, Object> doc : DatabaseManager.findAll(COLLECTION)) {
+            Object items = doc.get("items");
+            if (!(items instanceof String)) continue;
+
+            Map<String, Object> updates = new HashMap<>();
+            updates.put("items", parseLegacyItems((String) items));
+            DatabaseManager.update(COLLECTION, doc.get("id").toString(), updates);
+            System.out.println("🔧 Migrated line items of order " + doc.get("orderId") + " to structured data");
+        }
+    }
+
+    // Parse "[{itemId=15, itemName=..., quantity=2}]" back into item maps
+    private List<Map<String, Object>> parseLegacyItems(String legacy) {
+        List<Map<String, Object>> items = new ArrayList<>();
+        String body = legacy.trim();
+        if (body.length() < 4) return items;
+        body = body.substring(2, body.length() - 2);
+
+        for (String entry : body.split("\\}, \\{")) {
+            Map<String, Object> item = new HashMap<>();
+            for (String pair : entry.split(", (?=\\w+=)")) {
+                String[] keyValue = pair.split("=", 2);
+                if (keyValue.length != 2) continue;
+                String key = keyValue[0].trim();
+                String value = keyValue[1];
+                switch (key) {
+                    case "itemId":
+                    case "quantity":
+                        item.put(key, Integer.parseInt(value.trim()));
+                        break;
+                    case "itemPrice":
+                    case "totalPrice":
+                        item.put(key, Double.parseDouble(value.trim()));
+                        break;
+                    default:
+                        item.put(key, value);
+                }
+            }
+            items.add(item);
+        }
+        return items;
+    }
+
     // Helper method to get total item count from order
     public int getTotalItemCount(Order order) {
         return order.getItems().stream().mapToInt(item -> item.getQuantity()).sum();
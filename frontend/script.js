@@ -447,7 +447,41 @@ async function loadCartFromBackend() {
 }
 
 // Real-time synchronization
+let eventSource = null;
+
+function isEventStreamOpen() {
+    return eventSource !== null && eventSource.readyState === EventSource.OPEN;
+}
+
 function startRealTimeSync() {
+    // Browsers without EventSource keep polling
+    if (typeof EventSource === 'undefined') {
+        startPollingSync();
+        return;
+    }
+
+    // The server pushes the cart and orders when the stream opens and after every change
+    eventSource = new EventSource(`${API_BASE_URL}/events?customerId=${CUSTOMER_ID}`);
+
+    eventSource.addEventListener('cart', event => {
+        applyCartData(JSON.parse(event.data));
+    });
+
+    eventSource.addEventListener('orders', event => {
+        applyOrdersData(JSON.parse(event.data));
+    });
+
+    eventSource.onopen = () => {
+        console.log('📡 Live updates connected');
+    };
+
+    // EventSource reconnects by itself; the periodic check below polls until it does
+    eventSource.onerror = () => {
+        console.warn('📡 Live updates interrupted, reconnecting...');
+    };
+}
+
+function startPollingSync() {
     // Sync cart every 5 seconds
     setInterval(async () => {
         if (isBackendConnected) {
@@ -463,38 +497,30 @@ function startRealTimeSync() {
     }, 10000);
 }
 
+// Versions of the last cart and orders received; polls ask only for what changed since.
+// They are opaque tokens from the server; 0 asks for everything
+let cartVersion = '0';
+let ordersVersion = '0';
+
+// Fetch changes since a version; null when there are none (304 Not Modified)
+async function fetchChanges(endpoint, since) {
+    const response = await fetch(`${API_BASE_URL}${endpoint}?customerId=${CUSTOMER_ID}&since=${encodeURIComponent(since)}`);
+    if (response.status === 304) {
+        return null;
+    }
+    if (!response.ok) {
+        throw new Error(`HTTP error! status: ${response.status}`);
+    }
+    return await response.json();
+}
+
 async function syncCartWithBackend() {
     try {
         showSyncActivity('Syncing cart...');
-        const data = await apiCall('/cart');
-        if (data && data.items && Array.isArray(data.items)) {
-            const backendCart = data.items.map(item => ({
-                id: item.id,
-                name: item.name,
-                description: '', // Backend doesn't send description for cart items
-                price: item.price,
-                category: '', // Backend doesn't send category for cart items
-                image: item.imageUrl || '',
-                quantity: item.quantity,
-                instructions: item.specialInstructions || ''
-            }));
-
-            // Only update if cart has changed
-            if (JSON.stringify(cart) !== JSON.stringify(backendCart)) {
-                cart = backendCart;
-                updateCartDisplay();
-                updateCartPageDisplay();
-                console.log('🔄 Cart synced with backend - Items:', cart.length);
-                showNotification(`Cart synced: ${cart.length} items`, 'info');
-            }
-        } else {
-            // Handle empty cart
-            if (cart.length > 0) {
-                cart = [];
-                updateCartDisplay();
-                updateCartPageDisplay();
-                console.log('🔄 Cart cleared - backend has no items');
-            }
+        const changes = await fetchChanges('/cart', cartVersion);
+        if (changes) {
+            applyCartChanges(changes);
+            cartVersion = changes.version;
         }
     } catch (error) {
         console.error('Cart sync failed:', error);
@@ -503,30 +529,122 @@ async function syncCartWithBackend() {
     }
 }
 
+function toCartItem(item) {
+    return {
+        id: item.id,
+        name: item.name,
+        description: '', // Backend doesn't send description for cart items
+        price: item.price,
+        category: '', // Backend doesn't send category for cart items
+        image: item.imageUrl || '',
+        quantity: item.quantity,
+        instructions: item.specialInstructions || ''
+    };
+}
+
+// Merge changed and removed cart lines into the current cart
+function applyCartChanges(changes) {
+    if (changes.full) {
+        applyCartData(changes);
+        return;
+    }
+
+    // Removals first: an item can be removed and added again between two polls
+    const merged = cart.filter(item => !changes.removed.includes(item.id));
+    changes.items.map(toCartItem).forEach(item => {
+        const index = merged.findIndex(existing => existing.id === item.id);
+        if (index >= 0) {
+            merged[index] = item;
+        } else {
+            merged.push(item);
+        }
+    });
+    replaceCart(merged);
+}
+
+function applyCartData(data) {
+    const backendCart = data && Array.isArray(data.items) ? data.items.map(toCartItem) : [];
+    replaceCart(backendCart);
+}
+
+function replaceCart(backendCart) {
+    if (backendCart.length > 0) {
+        // Only update if cart has changed
+        if (JSON.stringify(cart) !== JSON.stringify(backendCart)) {
+            cart = backendCart;
+            updateCartDisplay();
+            updateCartPageDisplay();
+            console.log('🔄 Cart synced with backend - Items:', cart.length);
+            showNotification(`Cart synced: ${cart.length} items`, 'info');
+        }
+    } else {
+        // Handle empty cart
+        if (cart.length > 0) {
+            cart = [];
+            updateCartDisplay();
+            updateCartPageDisplay();
+            console.log('🔄 Cart cleared - backend has no items');
+        }
+    }
+}
+
 async function syncOrdersWithBackend() {
     try {
-        const data = await apiCall('/orders');
-        if (data && Array.isArray(data)) {
-            const backendOrders = data.map(order => ({
-                id: order.orderId,
-                date: order.orderTime,
-                items: [],
-                total: order.totalAmount,
-                status: order.status.toLowerCase().replace('_', '-')
-            }));
-
-            // Only update if orders have changed
-            if (JSON.stringify(orders) !== JSON.stringify(backendOrders)) {
-                orders = backendOrders;
-                updateOrdersDisplay();
-                console.log('🔄 Orders synced with backend');
-            }
+        const changes = await fetchChanges('/orders', ordersVersion);
+        if (changes) {
+            applyOrderChanges(changes);
+            ordersVersion = changes.version;
         }
     } catch (error) {
         console.error('Orders sync failed:', error);
     }
 }
 
+function toOrder(order) {
+    return {
+        id: order.orderId,
+        date: order.orderTime,
+        items: [],
+        total: order.totalAmount,
+        status: order.status.toLowerCase().replace('_', '-')
+    };
+}
+
+// Merge changed and removed orders into the current list, latest first
+function applyOrderChanges(changes) {
+    if (changes.full) {
+        applyOrdersData(changes.orders);
+        return;
+    }
+
+    const merged = orders.filter(order => !changes.removed.includes(order.id));
+    changes.orders.map(toOrder).forEach(order => {
+        const index = merged.findIndex(existing => existing.id === order.id);
+        if (index >= 0) {
+            merged[index] = order;
+        } else {
+            merged.push(order);
+        }
+    });
+    merged.sort((a, b) => b.date.localeCompare(a.date));
+    replaceOrders(merged);
+}
+
+function applyOrdersData(data) {
+    if (data && Array.isArray(data)) {
+        replaceOrders(data.map(toOrder));
+    }
+}
+
+function replaceOrders(backendOrders) {
+    // Only update if orders have changed
+    if (JSON.stringify(orders) !== JSON.stringify(backendOrders)) {
+        orders = backendOrders;
+        updateOrdersDisplay();
+        console.log('🔄 Orders synced with backend');
+    }
+}
+
 // Update cart display (sidebar)
 function updateCartDisplay() {
     // Update cart count
@@ -1291,10 +1409,12 @@ async function checkBackendConnection() {
 setInterval(async () => {
     await checkBackendConnection();
 
-    // If connected, sync data
+    // If connected, sync data; cart and orders arrive over the event stream while it is open
     if (isBackendConnected) {
-        await syncCartWithBackend();
-        await syncOrdersWithBackend();
+        if (!isEventStreamOpen()) {
+            await syncCartWithBackend();
+            await syncOrdersWithBackend();
+        }
         await syncMenuWithBackend();
     }
 }, 10000); // Check every 10 seconds